@@ -1,10 +1,20 @@
 package core;
 
-import haus.util.WrappedList;
-
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import core.memory.FiringEventLog;
+import core.memory.FiringHistoryStore;
+import core.memory.FiringList;
+import core.memory.MemorySlice;
+import core.snapshot.Snapshot;
+import core.snapshot.SnapshotWriter;
 
 import senses.basic.SeqSense;
 import senses.basic.WordSense;
@@ -19,21 +29,80 @@ public class Core implements Serializable {
 		relay = new SensoryRelay(s);
 	}
 	
+	private Core (SensoryRelay _relay) {
+		relay = _relay;
+	}
+	
 	/**
 	 * Creates a new Core System by deserializing a specified
-	 * core system.
+	 * core system. Both snapshots and older java serialized
+	 * cores may be loaded.
 	 */
 	public Core (String ser) {
-		relay = (SensoryRelay) haus.io.Serializer.deserialize(ser);
+		if (!Snapshot.isSnapshot(ser)) {
+			relay = SensoryRelay.readSerialized(ser);
+			return;
+		}
+		
+		try {
+			relay = SensoryRelay.readSnapshot(ser);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to load snapshot " + ser, e);
+		}
+	}
+	
+	/**
+	 * Opens a saved core for inspection. Only the levels and neurons of
+	 * a snapshot are read straight away. The children of each neuron, 
+	 * the memory and the firing index are read when first asked for, 
+	 * and the rest when the core is stepped, frozen or saved. Older 
+	 * java serialized cores are loaded in full.
+	 */
+	public static Core open (String ser) {
+		if (!Snapshot.isSnapshot(ser))
+			return new Core(ser);
+		
+		try {
+			return new Core(SensoryRelay.openSnapshot(ser));
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to open snapshot " + ser, e);
+		}
+	}
+	
+	/**
+	 * Deserializes a core system which will be frozen straight 
+	 * away if desired.
+	 */
+	public Core (String ser, boolean frozen) {
+		this(ser);
+		if (frozen)
+			freeze();
 	}
 	
 	/**
-	 * Returns the hierarchy of neurons used
+	 * Returns the hierarchy of neurons used. These are the live lists, 
+	 * which are changed as the core steps; observers on other threads 
+	 * should read getHierarchyView instead.
 	 */
 	public ArrayList<LinkedList<Neuron>> getNeuronHierarchy() {
 		return relay.getNeuronHierarchy();
 	}
 	
+	/**
+	 * Returns an immutable view of the hierarchy as it stood after the
+	 * latest step. The first call waits for the current step to publish
+	 * a view; after that a view is published with every step, and this 
+	 * returns the latest without blocking.
+	 */
+	public HierarchyView getHierarchyView () {
+		HierarchyView view = relay.getHierarchyView();
+		if (view != null)
+			return view;
+		synchronized (this) {
+			return relay.publishHierarchyView();
+		}
+	}
+	
 	/**
 	 * Returns the total number of active neurons.
 	 * @return
@@ -43,33 +112,253 @@ public class Core implements Serializable {
 	}
 	
 	/**
-	 * Moves to the next time step.
+	 * Returns the estimated bytes held by the neurons, their links, the
+	 * registry, the memory slices and index, the pattern matcher and the
+	 * limbo queue. This is cheap to call, as each part keeps counts of 
+	 * what it holds as it goes.
 	 */
-	public void step () {
+	public synchronized Footprint getFootprint () {
+		return relay.getFootprint();
+	}
+	
+	/**
+	 * Moves to the next time step. Steps are never taken while the
+	 * core is being captured for serialization.
+	 */
+	public synchronized void step () {
 		relay.step();
 	}
 	
+	/**
+	 * Freezes the core so that it no longer learns. Stepping
+	 * only propagates sensory input through the hierarchy, and
+	 * the memory and pattern matcher are released. This cannot 
+	 * be undone.
+	 */
+	public synchronized void freeze () {
+		relay.freeze();
+	}
+	
+	public boolean frozen () {
+		return relay.frozen();
+	}
+	
 	/**
 	 * Serializes the core of the network. Specifically, the 
-	 * NeuronHierarchy, Memory, Pattern Matcher, and Scorer
-	 * are serialized.
-	 * 
-	 * The sensory relay is not serialized as it is not possible
-	 * to serialize certain senses.
+	 * NeuronHierarchy, Memory, Pattern Matcher, Memory Manager
+	 * and Sense are written to a binary snapshot.
+	 */
+	public synchronized void serializeCore (String filename) {
+		try {
+			relay.writeSnapshot(filename);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write snapshot " + filename, e);
+		}
+	}
+	
+	/**
+	 * Serializes the core without holding up stepping. The core is 
+	 * captured in memory between steps, which may be done from any 
+	 * thread, and the capture is then written to the file in the 
+	 * background. The returned future completes once the file is 
+	 * written, or holds the error met while writing it.
+	 */
+	public Future<Void> serializeCoreAsync (final String filename) {
+		final SnapshotWriter image;
+		synchronized (this) {
+			try {
+				image = relay.captureSnapshot();
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to capture snapshot " + filename, e);
+			}
+		}
+		
+		return Snapshot.writeInBackground(new Callable<Void>() {
+			public Void call () throws IOException {
+				image.writeTo(filename);
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Keeps the core durable during long runs. A checkpoint snapshot 
+	 * is written to prefix.snap now and every interval steps, and every
+	 * neuron added or killed in between is appended to prefix.log.time,
+	 * where time is that of the checkpoint the log follows. Checkpoints
+	 * after the first are written in the background. See recover.
+	 */
+	public synchronized void enableChangeLog (String prefix, int interval) {
+		try {
+			relay.enableChangeLog(prefix, interval);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write checkpoint " + prefix, e);
+		}
+	}
+	
+	/**
+	 * Recovers a core by replaying the change log written under the 
+	 * given prefix onto its last checkpoint. Change logging must be 
+	 * enabled again on the recovered core if desired.
+	 */
+	public static Core recover (String prefix) {
+		try {
+			return new Core(SensoryRelay.recover(prefix));
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to recover " + prefix, e);
+		}
+	}
+	
+	/**
+	 * Streams every firing the core remembers, along with the creation 
+	 * and deletion of neurons, to the given file for offline analysis.
+	 * Events are written in the background. If the disk falls behind
+	 * and more than capacity events are waiting, the excess is dropped
+	 * and counted by the returned log rather than slowing the core. 
+	 * Frozen cores remember no firings.
 	 */
-	public void serializeCore (String filename) {
-		haus.io.Serializer.serialize(relay, filename);
+	public synchronized FiringEventLog enableEventLog (String filename, int capacity) {
+		try {
+			return relay.enableEventLog(filename, capacity);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to open event log " + filename, e);
+		}
+	}
+	
+	public FiringEventLog enableEventLog (String filename) {
+		return enableEventLog(filename, FiringEventLog.DEFAULT_CAPACITY);
 	}
 	
-	public String getMemoryRepresentation () {
+	/**
+	 * Stops event logging and writes out any events still pending.
+	 */
+	public synchronized void disableEventLog () {
+		relay.disableEventLog();
+	}
+	
+	/**
+	 * Keeps the firing history of every neuron beyond the memory window,
+	 * in a store in the given directory which may be queried while the
+	 * core runs. History already in the directory is kept and added to.
+	 * A directory holding history past the current time of the core, such
+	 * as that of an earlier run, is refused.
+	 * The store may also be opened read only for analysis while the core
+	 * writes to it, see FiringHistoryStore.
+	 */
+	public synchronized FiringHistoryStore enableFiringHistory (String directory) {
+		try {
+			return relay.enableFiringHistory(directory);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to open firing history " + directory, e);
+		}
+	}
+	
+	/**
+	 * Stops keeping firing history and closes the store.
+	 */
+	public synchronized void disableFiringHistory () {
+		relay.disableFiringHistory();
+	}
+	
+	/**
+	 * Sizes the memory window to keep the memory within the given number
+	 * of bytes. Senses firing few neurons are given longer windows, and
+	 * the window shrinks should the heap come under pressure. A budget of
+	 * zero restores the fixed window.
+	 */
+	public synchronized void setMemoryBudget (long bytes) {
+		relay.setMemoryBudget(bytes);
+	}
+	
+	/**
+	 * Returns the number of active time slices the memory may hold
+	 */
+	public int getMemoryWindow () {
+		return relay.getMemoryWindow();
+	}
+	
+	/**
+	 * Returns the firing history store being kept, or null if none is
+	 */
+	public FiringHistoryStore getFiringHistory () {
+		return relay.getFiringHistory();
+	}
+	
+	/**
+	 * Returns the memory as text. This waits for any step under way, so
+	 * it may be called while the core steps on another thread.
+	 */
+	public synchronized String getMemoryRepresentation () {
 		return relay.getMemoryRepresentation();
 	}
 	
+	/**
+	 * Returns copies of the slices of the memory from time from to time
+	 * to, oldest first. Only the slices asked for are copied, so a viewer
+	 * may page through the memory a few slices at a time.
+	 */
+	public synchronized List<MemorySlice> getMemorySlices (int from, int to) {
+		List<MemorySlice> slices = new ArrayList<MemorySlice>();
+		Iterator<MemorySlice> it = relay.getMemorySlices(from, to);
+		while (it.hasNext())
+			slices.add(it.next());
+		return slices;
+	}
+	
+	/**
+	 * Returns the earliest time held by the memory
+	 */
+	public synchronized int getOldestMemoryTime () {
+		return relay.getOldestMemoryTime();
+	}
+	
+	/**
+	 * Returns the inputs neuron n responds to and how many steps before 
+	 * it fires each must fire, or null if n is dead. Fields are kept 
+	 * once worked out, so asking again costs nothing.
+	 */
+	public synchronized ReceptiveField getReceptiveField (Neuron n) {
+		return relay.getReceptiveField(n);
+	}
+	
+	/**
+	 * Returns the neurons which respond to the given input firing the 
+	 * given number of steps before they do. The first call indexes the 
+	 * field of every neuron, and the index is kept from then on until 
+	 * dropped.
+	 */
+	public synchronized ArrayList<Neuron> getNeuronsCovering (int input, int offset) {
+		return relay.getInputIndex().getNeurons(input, offset);
+	}
+	
+	/**
+	 * Returns the neurons which respond to the given input at any offset
+	 */
+	public synchronized ArrayList<Neuron> getNeuronsCovering (int input) {
+		return relay.getInputIndex().getNeurons(input);
+	}
+	
+	/**
+	 * Stops keeping the index of the neurons responding to each input.
+	 */
+	public synchronized void dropInputIndex () {
+		relay.dropInputIndex();
+	}
+	
+	/**
+	 * Returns the inputs the primed neurons expect to fire at each of 
+	 * the next horizon steps, in order of input. The cost is in 
+	 * proportion to the neurons primed, not to the size of the hierarchy.
+	 */
+	public synchronized int[][] predictNextInputs (int horizon) {
+		return relay.predictInputs(horizon);
+	}
+	
 	public Neuron getNeuronByID (long id) {
 		return relay.getNeuronByID(id);
 	}
 	
-	public WrappedList<Integer> getNeuronFirings (Neuron n) {
+	public FiringList getNeuronFirings (Neuron n) {
 		return relay.getNeuronFirings(n);
 	}
 	
@@ -87,6 +376,6 @@ public class Core implements Serializable {
 			System.out.println(count++ + " " + i.getNeuronCount());
 		}
 		System.out.println("Done: " + (System.currentTimeMillis() - start) + "ms");
-		i.serializeCore("largeRan.ser");
+		i.serializeCore("largeRan.snap");
 	}
 }
@@ -0,0 +1,64 @@
+package core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The estimated bytes held by each part of a core. Each part keeps
+ * counts of what it holds as the core runs, and the estimate is those
+ * counts times rough sizes of the objects counted. Taking a footprint
+ * is thus cheap enough to do every step, but it is no substitute for
+ * a heap dump.
+ */
+public class Footprint {
+	/**
+	 * The parts of a core accounted for
+	 */
+	public static final String NEURONS = "Neurons", ADJACENCY = "Adjacency",
+		REGISTRY = "Registry", SLICES = "Memory slices", INDEX = "Memory index",
+		PATTERNS = "Pattern matcher", LIMBO = "Limbo queue", INPUTS = "Input index";
+
+	private LinkedHashMap<String,Long> bytes = new LinkedHashMap<String,Long>();
+
+
+	//<><(8)><>//
+
+
+	/**
+	 * Adds to the bytes held by the given part.
+	 */
+	public void add (String part, long b) {
+		bytes.put(part, get(part) + b);
+	}
+
+	/**
+	 * Returns the bytes held by the given part
+	 */
+	public long get (String part) {
+		Long b = bytes.get(part);
+		return b == null ? 0 : b;
+	}
+
+	/**
+	 * Returns the parts accounted for, in the order they were added
+	 */
+	public Set<String> getParts () {
+		return bytes.keySet();
+	}
+
+	public long getTotal () {
+		long total = 0;
+		for (long b : bytes.values())
+			total += b;
+		return total;
+	}
+
+	public String toString () {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String,Long> part : bytes.entrySet())
+			sb.append(part.getKey() + ": " + part.getValue() / 1024 + " KB\n");
+		sb.append("Total: " + getTotal() / 1024 + " KB\n");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,132 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * An immutable view of the hierarchy as it stood at the end of a step:
+ * the ids of the neurons of each level, their children, scores and
+ * whether each was firing or primed. Views are published by the
+ * stepping thread and may be read from any other without locking, so
+ * observers such as the gui never see the hierarchy half way through
+ * a step.
+ *
+ * The structure of a view is shared with the views after it for as
+ * long as no neuron is added or removed, so publishing a view each
+ * step costs little more than copying the scores and firing state.
+ */
+public class HierarchyView {
+	/**
+	 * Flags held for each neuron
+	 */
+	static final byte FIRING = 1, PRIMED = 2, TEMPORAL = 4;
+
+	private final int time;
+
+	/**
+	 * The ids of the neurons of each level, in level order
+	 */
+	private final long[][] ids;
+
+	/**
+	 * The ids of the children of each neuron, indexed as ids
+	 */
+	private final long[][][] children;
+
+	private final int[][] scores;
+
+	private final byte[][] flags;
+
+
+	//<><(8)><>//
+
+
+	HierarchyView (int _time, long[][] _ids, long[][][] _children, int[][] _scores, byte[][] _flags) {
+		time = _time;
+		ids = _ids;
+		children = _children;
+		scores = _scores;
+		flags = _flags;
+	}
+
+	/**
+	 * Returns the time step at the end of which the view was taken
+	 */
+	public int getTime () {
+		return time;
+	}
+
+	public int getLevelCount () {
+		return ids.length;
+	}
+
+	public int getLevelSize (int level) {
+		return ids[level].length;
+	}
+
+	/**
+	 * Returns the size of the widest level
+	 */
+	public int getMaxLevelSize () {
+		int max = 0;
+		for (long[] level : ids)
+			max = Math.max(max, level.length);
+		return max;
+	}
+
+	public int getNeuronCount () {
+		int count = 0;
+		for (long[] level : ids)
+			count += level.length;
+		return count;
+	}
+
+	/**
+	 * Returns the ids of the neurons of a level. The array is shared
+	 * between views for as long as the level is unchanged, and must not
+	 * be modified.
+	 */
+	public long[] getLevel (int level) {
+		return ids[level];
+	}
+
+	/**
+	 * Returns true if a level holds the same neurons in both views and
+	 * each is firing and primed in both or neither
+	 */
+	public boolean sameLevel (HierarchyView other, int level) {
+		return level < ids.length && level < other.ids.length
+			&& ids[level] == other.ids[level]
+			&& Arrays.equals(flags[level], other.flags[level]);
+	}
+
+	/**
+	 * Returns the id of the ith neuron of a level
+	 */
+	public long getId (int level, int i) {
+		return ids[level][i];
+	}
+
+	/**
+	 * Returns the ids of the children of the ith neuron of a level. The
+	 * array is shared between views and must not be modified.
+	 */
+	public long[] getChildren (int level, int i) {
+		return children[level][i];
+	}
+
+	public int getScore (int level, int i) {
+		return scores[level][i];
+	}
+
+	public boolean firing (int level, int i) {
+		return (flags[level][i] & FIRING) != 0;
+	}
+
+	public boolean primed (int level, int i) {
+		return (flags[level][i] & PRIMED) != 0;
+	}
+
+	public boolean temporal (int level, int i) {
+		return (flags[level][i] & TEMPORAL) != 0;
+	}
+}
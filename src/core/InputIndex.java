@@ -0,0 +1,119 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * An inverted index from each input of the base level and offset to the
+ * living neurons whose receptive fields hold it. The hierarchy keeps the
+ * index up to date as neurons are added and killed, so asking which
+ * neurons respond to an input costs no more than the size of the answer.
+ *
+ * The index holds the field of every neuron in it, as a neuron's field
+ * can no longer be worked out once its children have been killed. It
+ * thus holds a good deal more than the hierarchy itself when fields are
+ * large, and is only kept once asked for.
+ */
+public class InputIndex {
+	/**
+	 * The neurons holding each (offset, input) pair, packed as in
+	 * ReceptiveField
+	 */
+	private Hashtable<Long,LinkedHashSet<Neuron>> neurons = new Hashtable<Long,LinkedHashSet<Neuron>>();
+
+	/**
+	 * The field each neuron was indexed under
+	 */
+	private IdentityHashMap<Neuron,ReceptiveField> fields = new IdentityHashMap<Neuron,ReceptiveField>();
+
+	/**
+	 * The largest offset of any field indexed
+	 */
+	private int maxSpan = 0;
+
+	private long cells = 0;
+
+
+	//<><(8)><>//
+
+
+	/**
+	 * Adds neuron n, whose receptive field is given.
+	 */
+	void add (Neuron n, ReceptiveField field) {
+		if (fields.put(n, field) != null)
+			return;
+		for (int i = 0; i < field.size(); i++) {
+			Long key = field.getCell(i);
+			LinkedHashSet<Neuron> holding = neurons.get(key);
+			if (holding == null)
+				neurons.put(key, holding = new LinkedHashSet<Neuron>());
+			holding.add(n);
+		}
+		maxSpan = Math.max(maxSpan, field.getSpan());
+		cells += field.size();
+	}
+
+	/**
+	 * Removes neuron n, if it is indexed.
+	 */
+	void remove (Neuron n) {
+		ReceptiveField field = fields.remove(n);
+		if (field == null)
+			return;
+		for (int i = 0; i < field.size(); i++) {
+			Long key = field.getCell(i);
+			LinkedHashSet<Neuron> holding = neurons.get(key);
+			holding.remove(n);
+			if (holding.isEmpty())
+				neurons.remove(key);
+		}
+		cells -= field.size();
+	}
+
+	/**
+	 * Returns the neurons which respond to the given input firing the
+	 * given number of steps before they do, oldest first
+	 */
+	public ArrayList<Neuron> getNeurons (int input, int offset) {
+		LinkedHashSet<Neuron> holding = neurons.get(ReceptiveField.cell(input, offset));
+		return holding == null ? new ArrayList<Neuron>() : new ArrayList<Neuron>(holding);
+	}
+
+	/**
+	 * Returns the neurons which respond to the given input at any offset
+	 */
+	public ArrayList<Neuron> getNeurons (int input) {
+		LinkedHashSet<Neuron> found = new LinkedHashSet<Neuron>();
+		for (int offset = 0; offset <= maxSpan; offset++) {
+			LinkedHashSet<Neuron> holding = neurons.get(ReceptiveField.cell(input, offset));
+			if (holding != null)
+				found.addAll(holding);
+		}
+		return new ArrayList<Neuron>(found);
+	}
+
+	/**
+	 * Returns the field neuron n was indexed under, or null if it is not
+	 * indexed
+	 */
+	public ReceptiveField getField (Neuron n) {
+		return fields.get(n);
+	}
+
+	/**
+	 * Returns the number of neurons indexed
+	 */
+	public int size () {
+		return fields.size();
+	}
+
+	/**
+	 * Returns the number of (neuron, input, offset) entries held
+	 */
+	public long getCells () {
+		return cells;
+	}
+}
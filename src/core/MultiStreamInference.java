@@ -0,0 +1,274 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.LinkedList;
+
+/**
+ * Runs a frozen neuron hierarchy against as many as 64 independent
+ * input streams at once. The firing state of each neuron is kept in
+ * a single long in which bit i is the firing of that neuron in stream i.
+ * A single propagation through the hierarchy thus evaluates every stream.
+ *
+ * The hierarchy is copied into flat arrays upon construction. No learning
+ * takes place and later changes to the hierarchy are not seen. Each stream
+ * starts out with no firing history.
+ */
+public class MultiStreamInference {
+	/**
+	 * The number of streams which can be run together
+	 */
+	public static final int MAX_STREAMS = Long.SIZE;
+
+	/**
+	 * Neurons [0, baseCount) are the base neurons fed by the streams.
+	 * The rest follow in order of increasing height.
+	 */
+	private int baseCount;
+
+	private int neuronCount;
+
+	/**
+	 * The id of each neuron. Base neurons have no id.
+	 */
+	private long[] ids;
+
+	/**
+	 * The children of neuron n are childIndex[childStart[n]] up to
+	 * childIndex[childStart[n+1]], with matching delays in childDelay.
+	 */
+	private int[] childStart;
+	private int[] childIndex;
+	private int[] childDelay;
+
+	/**
+	 * Each neuron keeps a ring of its past firing lanes in history, starting
+	 * at historyStart. The ring is just deep enough to serve the longest
+	 * delay to any of its parents.
+	 */
+	private int[] historyStart;
+	private int[] historyDepth;
+	private long[] history;
+
+	/**
+	 * The number of times each neuron has fired summed over all streams
+	 */
+	private long[] firingCounts;
+
+	/**
+	 * Finds the index of a neuron from its id
+	 */
+	private Hashtable<Long,Integer> indexById = new Hashtable<Long,Integer>();
+
+	/**
+	 * Scratch array used to gather the sensory input of each stream
+	 */
+	private long[] inputLanes;
+
+	private int time = -1;
+
+
+	//<><(8)><>//
+
+
+	/**
+	 * Loads the hierarchy of a serialized core.
+	 */
+	public MultiStreamInference (String ser) {
+		this(new Core(ser).relay.getHierarchy());
+	}
+
+	/**
+	 * Flattens the given hierarchy. Dead neurons and neurons resting upon
+	 * them are left out.
+	 */
+	public MultiStreamInference (NeuronHierarchy hier) {
+		Neuron[] base = hier.getBase();
+		ArrayList<LinkedList<Neuron>> levels = hier.getHierarchy();
+
+		Hashtable<Neuron,Integer> index = new Hashtable<Neuron,Integer>();
+		ArrayList<Neuron> order = new ArrayList<Neuron>();
+		for (Neuron n : base) {
+			index.put(n, order.size());
+			order.add(n);
+		}
+		baseCount = order.size();
+
+		int edges = 0;
+		for (LinkedList<Neuron> level : levels) {
+			for (Neuron n : level) {
+				if (n.dead() || !allIndexed(n.getChildren(), index))
+					continue;
+				index.put(n, order.size());
+				order.add(n);
+				edges += n.getChildren().size();
+			}
+		}
+		neuronCount = order.size();
+
+		ids = new long[neuronCount];
+		childStart = new int[neuronCount + 1];
+		childIndex = new int[edges];
+		childDelay = new int[edges];
+		historyDepth = new int[neuronCount];
+
+		int edge = 0;
+		for (int n = 0; n < neuronCount; n++) {
+			Neuron neuron = order.get(n);
+			ids[n] = neuron.getId();
+			if (n >= baseCount)
+				indexById.put(neuron.getId(), n);
+
+			childStart[n] = edge;
+			historyDepth[n] = 1;
+			if (n < baseCount)
+				continue;
+
+			ArrayList<Neuron> children = neuron.getChildren();
+			Integer[] delays = neuron.getDelays();
+			for (int i = 0; i < children.size(); i++) {
+				int child = index.get(children.get(i));
+				childIndex[edge] = child;
+				childDelay[edge] = delays[i];
+				historyDepth[child] = Math.max(historyDepth[child], delays[i] + 1);
+				edge++;
+			}
+		}
+		childStart[neuronCount] = edge;
+
+		historyStart = new int[neuronCount];
+		int historySize = 0;
+		for (int n = 0; n < neuronCount; n++) {
+			historyStart[n] = historySize;
+			historySize += historyDepth[n];
+		}
+		history = new long[historySize];
+		firingCounts = new long[neuronCount];
+		inputLanes = new long[baseCount];
+	}
+
+	private boolean allIndexed (ArrayList<Neuron> children, Hashtable<Neuron,Integer> index) {
+		for (Neuron child : children)
+			if (!index.containsKey(child))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Steps every stream forwards. Element i of senses supplies the
+	 * input of stream i. The input of each sense may be no wider than
+	 * the base of the hierarchy.
+	 */
+	public void step (Sense[] senses) {
+		if (senses.length > MAX_STREAMS)
+			throw new IllegalArgumentException(senses.length + " streams given, but at most " + 
+					MAX_STREAMS + " can be run together");
+
+		for (int i = 0; i < baseCount; i++)
+			inputLanes[i] = 0;
+
+		for (int stream = 0; stream < senses.length; stream++) {
+			boolean[] input = senses[stream].getInput();
+			if (input.length > baseCount)
+				throw new IllegalArgumentException("Stream " + stream + " gives " + input.length + 
+						" inputs, but the hierarchy has only " + baseCount + " base neurons");
+			long bit = 1L << stream;
+			for (int i = 0; i < input.length; i++)
+				if (input[i])
+					inputLanes[i] |= bit;
+		}
+
+		step(inputLanes);
+	}
+
+	/**
+	 * Steps every stream forwards. Bit j of input[i] is set if the
+	 * base neuron i fires in stream j.
+	 *
+	 * A neuron fires in a stream if each child fired its delay ago and at
+	 * least one child fires now, just as it would be updated by the
+	 * NeuronHierarchy.
+	 */
+	public void step (long[] input) {
+		if (input.length < baseCount)
+			throw new IllegalArgumentException(input.length + " input lanes given for " + 
+					baseCount + " base neurons");
+		time++;
+
+		for (int n = 0; n < baseCount; n++)
+			setLanes(n, input[n]);
+
+		for (int n = baseCount; n < neuronCount; n++) {
+			long all = -1L, any = 0L;
+			for (int e = childStart[n]; e < childStart[n+1] && all != 0; e++) {
+				int child = childIndex[e];
+				all &= getLanes(child, time - childDelay[e]);
+				any |= getLanes(child, time);
+			}
+
+			long lanes = all & any;
+			setLanes(n, lanes);
+			if (lanes != 0)
+				firingCounts[n] += Long.bitCount(lanes);
+		}
+	}
+
+	private long getLanes (int n, int t) {
+		if (t < 0)
+			return 0;
+		return history[historyStart[n] + t % historyDepth[n]];
+	}
+
+	private void setLanes (int n, long lanes) {
+		history[historyStart[n] + time % historyDepth[n]] = lanes;
+	}
+
+	/**
+	 * Returns the firing lanes of the neuron with the given id at the
+	 * current step. Bit i is set if the neuron fires in stream i.
+	 */
+	public long getFiringLanes (long id) {
+		Integer n = indexById.get(id);
+		if (n == null || time < 0)
+			return 0;
+		return getLanes(n, time);
+	}
+
+	/**
+	 * Returns true if the neuron with the given id fires in the
+	 * given stream at the current step.
+	 */
+	public boolean firing (long id, int stream) {
+		return ((getFiringLanes(id) >>> stream) & 1L) != 0;
+	}
+
+	/**
+	 * Returns the number of times the neuron with the given id
+	 * has fired summed over all streams.
+	 */
+	public long getFiringCount (long id) {
+		Integer n = indexById.get(id);
+		return n == null ? 0 : firingCounts[n];
+	}
+
+	/**
+	 * Returns the ids of all neurons in the frozen hierarchy, lowest first.
+	 */
+	public long[] getNeuronIds () {
+		long[] out = new long[neuronCount - baseCount];
+		System.arraycopy(ids, baseCount, out, 0, out.length);
+		return out;
+	}
+
+	public int getInputLength () {
+		return baseCount;
+	}
+
+	public int getNeuronCount () {
+		return neuronCount - baseCount;
+	}
+
+	public int getTime () {
+		return time;
+	}
+}
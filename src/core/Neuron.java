@@ -6,9 +6,12 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Comparator;
 
+import core.snapshot.Snapshot;
+
 /**
  * The neuron represents our basic unit. It forms 
  * abstraction and transmits messages to other neurons.
@@ -85,6 +88,44 @@ public class Neuron implements Serializable, Comparable<Neuron> {
 	 */
 	private ArrayList<WrappedList<Integer>> firingQueue;
 	
+	/**
+	 * The number of distinct children which must fire for a non-temporal
+	 * neuron to fire.
+	 */
+	private transient int fanIn;
+	
+	/**
+	 * The time step at which activationCount was last incremented. Counts
+	 * from earlier time steps are stale.
+	 */
+	private transient int activationTime = -1;
+	
+	/**
+	 * The number of children of a non-temporal neuron which have 
+	 * fired during activationTime.
+	 */
+	private transient int activationCount = 0;
+	
+	/**
+	 * The hierarchy which still has to page in the children of this 
+	 * neuron from a snapshot, or null once they are in place.
+	 */
+	private transient volatile NeuronHierarchy pager = null;
+	
+	/**
+	 * Whether this neuron was primed when its snapshot was taken. This
+	 * stands in for primed until the children are paged in.
+	 */
+	private transient boolean primedAtSnapshot = false;
+	
+	/**
+	 * The receptive field of this neuron once it has been worked out by 
+	 * the hierarchy. It never changes, as the children of a neuron never
+	 * do once it is made. The field of a tall neuron may be large, so it
+	 * is softly held and worked out again if it has been collected.
+	 */
+	private transient volatile SoftReference<ReceptiveField> field = null;
+	
 	
 	//<><(Complex Methods)><>//
 	
@@ -111,6 +152,7 @@ public class Neuron implements Serializable, Comparable<Neuron> {
 		
 		for (Neuron child : _foundation)
 			children.add(child);
+		fanIn = countDistinctChildren();
 		
 		firingQueue = new ArrayList<WrappedList<Integer>>(delays.length);
 		for (int i : delays) {
@@ -139,6 +181,100 @@ public class Neuron implements Serializable, Comparable<Neuron> {
 		lastFiringTime = timeKeeper.getTime();
 	}
 	
+	/**
+	 * Recreates a neuron from its header in a snapshot. The neuron has
+	 * no children until they are given by setFoundation.
+	 */
+	Neuron (long _id, int _height, int _score, int _lastFiringTime, int _lastNonFiringTime, 
+			boolean _dead, TimeKeeper _tk) {
+		id = _id;
+		height = _height;
+		score = _score;
+		lastFiringTime = _lastFiringTime;
+		lastNonFiringTime = _lastNonFiringTime;
+		dead = _dead;
+		timeKeeper = _tk;
+		delays = new Integer[0];
+	}
+	
+	/**
+	 * Gives a neuron recreated from a snapshot its children. The neuron 
+	 * is not yet a parent of its children, see linkParents. Pending 
+	 * firings of temporal children are restored through getPendingFirings.
+	 */
+	void setFoundation (Neuron[] _foundation, Integer[] _delays) {
+		delays = _delays;
+		
+		children.clear();
+		for (Neuron child : _foundation)
+			children.add(child);
+		fanIn = countDistinctChildren();
+		
+		temporal = false;
+		firingQueue = new ArrayList<WrappedList<Integer>>(delays.length);
+		for (int i : delays) {
+			if (i > 0) {
+				firingQueue.add(new WrappedList<Integer>(i));
+				temporal = true;
+			} else {
+				firingQueue.add(null);
+			}
+		}
+	}
+	
+	/**
+	 * Leaves the children of a neuron recreated from its header to be 
+	 * paged in by the hierarchy when they are first needed. Until then 
+	 * whether the neuron is temporal or primed is taken from the flags 
+	 * saved in the snapshot.
+	 */
+	void pageFrom (NeuronHierarchy _pager, byte flags) {
+		temporal = (flags & Snapshot.FLAG_TEMPORAL) != 0;
+		primedAtSnapshot = (flags & Snapshot.FLAG_PRIMED) != 0;
+		pager = _pager;
+	}
+	
+	/**
+	 * Marks the children of a neuron recreated from its header as in
+	 * place. Called once every neuron has its children and parents.
+	 */
+	void pagedIn () {
+		pager = null;
+	}
+	
+	/**
+	 * Makes sure the children of this neuron are in place.
+	 */
+	private void page () {
+		NeuronHierarchy p = pager;
+		if (p != null)
+			p.pageInAdjacency();
+	}
+	
+	/**
+	 * Rebuilds the parents and longest parent delays of the given neurons
+	 * in a single pass. The neurons must have no parents beforehand and
+	 * all children must be among the given neurons.
+	 */
+	static void linkParents (Iterable<Neuron> neurons) {
+		for (Neuron parent : neurons) {
+			if (parent.dead || parent.children == null)
+				continue;
+			
+			for (int i = 0; i < parent.children.size(); i++) {
+				Neuron child = parent.children.get(i);
+				ArrayList<Neuron> childParents = child.parents;
+				
+				// Repeated children are adjacent in the child's parent list
+				if (childParents.isEmpty() || childParents.get(childParents.size() - 1) != parent)
+					childParents.add(parent);
+				
+				if (parent.delays[i] > child.maxParentDelay)
+					child.maxParentDelay = parent.delays[i];
+			}
+		}
+	}
+	
 	private void addFutureFiringTime (WrappedList<Integer> pastFirings, int futureFiringTime) {
 		pastFirings.add(futureFiringTime);
 	}
@@ -153,6 +289,11 @@ public class Neuron implements Serializable, Comparable<Neuron> {
 		
 		int currentTime = timeKeeper.getTime();
 		
+		if (!temporal) {
+			recordFiring(activationTime == currentTime && activationCount >= fanIn);
+			return;
+		}
+		
 		boolean shouldFire = true;
 		
 		for (int i = 0; i < children.size(); i++) {
@@ -187,6 +328,11 @@ public class Neuron implements Serializable, Comparable<Neuron> {
 			}
 		}
 		
+		recordFiring(shouldFire);
+	}
+	
+	private void recordFiring (boolean shouldFire) {
+		int currentTime = timeKeeper.getTime();
 		if (shouldFire) {
 			lastFiringTime = currentTime;
 			score++;
@@ -195,6 +341,39 @@ public class Neuron implements Serializable, Comparable<Neuron> {
 		}
 	}
 	
+	/**
+	 * Called by the hierarchy on each parent of a neuron which has just fired.
+	 * Non-temporal neurons count their firing children so that update need 
+	 * not check each child. This relies on all children being updated 
+	 * before their parents.
+	 */
+	void childFired () {
+		if (temporal)
+			return;
+		
+		int currentTime = timeKeeper.getTime();
+		if (activationTime != currentTime) {
+			activationTime = currentTime;
+			activationCount = 0;
+		}
+		activationCount++;
+	}
+	
+	/**
+	 * Counts the number of distinct neurons among the children.
+	 */
+	private int countDistinctChildren () {
+		int distinct = 0;
+		for (int i = 0; i < children.size(); i++) {
+			boolean seen = false;
+			for (int j = 0; j < i && !seen; j++)
+				seen = children.get(i) == children.get(j);
+			if (!seen)
+				distinct++;
+		}
+		return distinct;
+	}
+	
 	private boolean baseLevelNeuron () {
 		return children == null || children.isEmpty();
 	}
@@ -211,6 +390,7 @@ public class Neuron implements Serializable, Comparable<Neuron> {
 	 * Returns true if the neuron is a top-level neuron.
 	 */
 	public boolean topLevel () {
+		page();
 		return parents.isEmpty();
 	}
 
@@ -221,6 +401,8 @@ public class Neuron implements Serializable, Comparable<Neuron> {
 	public boolean primed () {
 		if (!temporal())
 			return false;
+		if (pager != null)
+			return primedAtSnapshot;
 				
 		for (int i = 0; i < delays.length; i++) {
 			int delay = delays[i];
@@ -286,18 +468,31 @@ public class Neuron implements Serializable, Comparable<Neuron> {
 	
 	
 	public int getLongestParentDelay () {
+		page();
 		return maxParentDelay;
 	}
 	
 	public Integer[] getDelays () {
+		page();
 		return delays;
 	}
 	
+	/**
+	 * Returns the times at which the temporal child i is expected 
+	 * to have fired, or null if child i has no delay.
+	 */
+	WrappedList<Integer> getPendingFirings (int i) {
+		page();
+		return firingQueue.get(i);
+	}
+	
 	public ArrayList<Neuron> getChildren () {
+		page();
 		return children;
 	}
 	
 	public ArrayList<Neuron> getParents () {
+		page();
 		return parents;
 	}
 	
@@ -326,6 +521,15 @@ public class Neuron implements Serializable, Comparable<Neuron> {
 		maxParentDelay = findMaxParentDelay();
 	}
 	
+	ReceptiveField getField () {
+		SoftReference<ReceptiveField> f = field;
+		return f == null ? null : f.get();
+	}
+	
+	void setField (ReceptiveField _field) {
+		field = new SoftReference<ReceptiveField>(_field);
+	}
+	
 	public int getHeight () {
 		return height;
 	}
@@ -355,6 +559,7 @@ public class Neuron implements Serializable, Comparable<Neuron> {
 	}
 	
 	public String toAdvancedString () {
+		page();
 		StringBuilder sb = new StringBuilder();
 		
 		sb.append("Id: " + getId() + "\n");
@@ -429,18 +634,16 @@ public class Neuron implements Serializable, Comparable<Neuron> {
 	}
 	
 	/**
-	 * Upon deserializing this neuron, we must reconstruct the parent 
-	 * array. This is done in a top-down fashion, each higher level neuron
-	 * reconstructing the parent array of its children.
+	 * Upon deserializing this neuron, the parent array is left empty. 
+	 * Children may not yet be fully read at this point, so the parents 
+	 * of all neurons are reconstructed by linkParents once the whole 
+	 * hierarchy has been read.
 	 */
 	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
 		in.defaultReadObject();
 		parents = new ArrayList<Neuron>();
+		activationTime = -1;
 		if (dead) return;
-		for (Neuron child : children) {
-			if (child.parents == null)
-				child.parents = new ArrayList<Neuron>();
-			child.addParent(this);
-		}
+		fanIn = countDistinctChildren();
 	}
 }
@@ -1,14 +1,28 @@
 package core;
 
+import haus.util.WrappedList;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.ListIterator;
 import java.util.PriorityQueue;
+import java.util.TreeSet;
 
+import core.memory.FiringListener;
 import core.memory.Memory;
 import core.memory.MemoryManager;
+import core.snapshot.ChangeLog;
+import core.snapshot.Snapshot;
+import core.snapshot.SnapshotReader;
+import core.snapshot.SnapshotWriter;
 
 /**
  * Represents a hierarchically arranged group of neurons.
@@ -25,6 +39,15 @@ public class NeuronHierarchy implements Serializable {
 	 */
 	private static final int MIN_SCORE = 2;
 	
+	/**
+	 * Rough sizes in bytes of each neuron with its lists, each link 
+	 * between a neuron and a child, each entry of the registry and 
+	 * structure index, and each neuron and cell of the input index
+	 */
+	private static final int NEURON_BYTES = 256, LINK_BYTES = 64, 
+		REGISTRY_BYTES = 56, STRUCTURE_BYTES = 96, INPUT_NEURON_BYTES = 64,
+		INPUT_CELL_BYTES = 72;
+	
 	/**
 	 * The level of neurons fed directly by sensory input
 	 */
@@ -40,6 +63,14 @@ public class NeuronHierarchy implements Serializable {
 	 */
 	private Hashtable<Long,Neuron> neuronRegistry = new Hashtable<Long,Neuron>();
 	
+	/**
+	 * An index of neurons by their structure (children and delays). This
+	 * is used to ensure that no two neurons share the same structure. It
+	 * is rebuilt from the hierarchy upon deserialization.
+	 */
+	private transient Hashtable<StructureKey,Neuron> structureIndex = 
+		new Hashtable<StructureKey,Neuron>();
+	
 	/**
 	 * The total number of neurons created. This is incremented 
 	 * to create IDs for new neurons.
@@ -51,6 +82,11 @@ public class NeuronHierarchy implements Serializable {
 	 * are added to the network.
 	 */
 	private long currentNeurons = 0;
+	
+	/**
+	 * The number of links from neurons in the hierarchy to their children
+	 */
+	private transient long links = 0;
 		
 	private TimeKeeper timeKeeper = null;
 	
@@ -74,8 +110,89 @@ public class NeuronHierarchy implements Serializable {
 	
 	private boolean foundNeuronCap = false;
 	
+	/**
+	 * Neurons above level zero which have never failed to fire, grouped by
+	 * level. These are the candidates for a neuron cap. Insertion order is 
+	 * kept so the oldest neuron of a level is suspected first.
+	 */
+	private transient ArrayList<LinkedHashSet<Neuron>> perpetualFiring = 
+		new ArrayList<LinkedHashSet<Neuron>>();
+	
 	private static final int MIN_CYCLE_COUNT = 2;
 	
+	/**
+	 * A frozen hierarchy only propagates firings. It neither remembers
+	 * them nor tracks the structures needed to grow.
+	 */
+	private boolean frozen = false;
+	
+	/**
+	 * Records structural changes to the hierarchy if set
+	 */
+	private transient ChangeLog changeLog = null;
+	
+	/**
+	 * Receive the creation and deletion of neurons. This is replaced 
+	 * rather than changed so that it may be read while listeners are 
+	 * added.
+	 */
+	private transient FiringListener[] listeners = null;
+	
+	/**
+	 * The latest view published, or null if none has been asked for
+	 */
+	private transient volatile HierarchyView view = null;
+	
+	/**
+	 * The index of each base neuron within the base, made when first 
+	 * needed to work out a receptive field
+	 */
+	private transient IdentityHashMap<Neuron,Integer> baseInputs = null;
+	
+	/**
+	 * The neurons responding to each input, or null if the index has not
+	 * been asked for
+	 */
+	private transient InputIndex inputIndex = null;
+	
+	/**
+	 * The temporal neurons which are primed, or null if they have not 
+	 * been asked for
+	 */
+	private transient PrimedSet primedSet = null;
+	
+	/**
+	 * The ids and children of each level of the latest view, kept for the
+	 * next view unless a neuron of the level has been added or removed
+	 */
+	private transient long[][] viewIds = null;
+	private transient long[][][] viewChildren = null;
+	
+	/**
+	 * The levels to which neurons have been added or from which they have
+	 * been removed since the latest view
+	 */
+	private transient BitSet changedLevels = new BitSet();
+	
+	/**
+	 * The snapshot from which the children of neurons are still to be 
+	 * paged in, if the hierarchy was read lazily
+	 */
+	private transient volatile SnapshotReader pagingSnapshot = null;
+	
+	/**
+	 * Whether the children of neurons are being paged in, and why paging
+	 * them in failed if it did. Both are guarded by the paging snapshot.
+	 */
+	private transient boolean pagingIn = false;
+	private transient RuntimeException pagingFailure = null;
+	
+	/**
+	 * Neurons read from a snapshot in the order they were written, kept
+	 * until their children have been read
+	 */
+	private transient Neuron[] snapshotOrder;
+	
 	
 	//<><(8)><>//
 	
@@ -101,15 +218,47 @@ public class NeuronHierarchy implements Serializable {
 					continue;
 				if (n.dead() || n.getScore() < MIN_SCORE && 
 						n.getLastFiringTime() < timeKeeper.getTime() - SensoryRelay.DELETE_INTERVAL) {
-					n.kill();
-					memory.remove(n);
+					removeNeuron(n);
 					level.remove();
-					neuronRegistry.remove(n);
-					currentNeurons--;
 				} 
 				//else n.setScore(n.getScore() - MIN_SCORE);
 			}
 		}
+		
+		if (changeLog != null)
+			changeLog.scores(hierarchy);
+	}
+	
+	/**
+	 * Kills neuron n and removes all references to it except for its
+	 * place in its level, which must be removed by the caller.
+	 */
+	private void removeNeuron (Neuron n) {
+		if (changeLog != null)
+			changeLog.neuronKilled(n);
+		if (listeners != null)
+			for (FiringListener l : listeners)
+				l.neuronKilled(n, timeKeeper.getTime());
+		
+		unindexStructure(n);
+		removePerpetualFiring(n);
+		// Killing n kills its parents as well
+		if (inputIndex != null) {
+			inputIndex.remove(n);
+			for (Neuron parent : n.getParents())
+				inputIndex.remove(parent);
+		}
+		if (primedSet != null) {
+			primedSet.remove(n);
+			for (Neuron parent : n.getParents())
+				primedSet.remove(parent);
+		}
+		links -= n.getChildren().size();
+		changedLevels.set(n.getHeight());
+		n.kill();
+		memory.remove(n);
+		neuronRegistry.remove(n.getId());
+		currentNeurons--;
 	}
 	
 	/**
@@ -168,18 +317,42 @@ public class NeuronHierarchy implements Serializable {
 		return true;
 	}
 	
+	/**
+	 * Returns the oldest neuron of the highest level which has never failed
+	 * to fire, or null if there is no such neuron.
+	 */
 	private Neuron findPerpetualFiringNeuron () {
-		for (int i = hierarchy.size() - 1; i >= 1; i--) {
-			ListIterator<Neuron> level = hierarchy.get(i).listIterator();
-			while (level.hasNext()) {
-				Neuron n = level.next();
-				if (n.hasNeverNotFired())
-					return n;
-			}
+		for (int i = perpetualFiring.size() - 1; i >= 1; i--) {
+			LinkedHashSet<Neuron> level = perpetualFiring.get(i);
+			if (!level.isEmpty())
+				return level.iterator().next();
 		}
 		return null;
 	}
 	
+	/**
+	 * Records neuron n as never having failed to fire.
+	 */
+	private void addPerpetualFiring (Neuron n) {
+		int height = n.getHeight();
+		if (height < 1 || !n.hasNeverNotFired())
+			return;
+		while (perpetualFiring.size() <= height)
+			perpetualFiring.add(new LinkedHashSet<Neuron>());
+		perpetualFiring.get(height).add(n);
+	}
+	
+	/**
+	 * Called when neuron n has failed to fire or has been removed, meaning 
+	 * it can no longer be a cap.
+	 */
+	private void removePerpetualFiring (Neuron n) {
+		int height = n.getHeight();
+		if (height < 1 || height >= perpetualFiring.size())
+			return;
+		perpetualFiring.get(height).remove(n);
+	}
+	
 	/**
 	 * The method for updating the hierarchy. This only updates
 	 * the neurons who are firing, thus saving lots of time when dealing
@@ -198,17 +371,26 @@ public class NeuronHierarchy implements Serializable {
 			Neuron n = levelQueue.remove();
 			n.update();
 			if (n.firing()) {
-				memoryManager.rememberFiringNeuron(n);
-				for (Neuron parent : n.getParents())
+				if (!frozen)
+					memoryManager.rememberFiringNeuron(n);
+				for (Neuron parent : n.getParents()) {
+					parent.childFired();
 					if (!seen.containsKey(parent)) {
 						levelQueue.add(parent);
 						seen.put(parent, true);
 					}
+				}
+				if (primedSet != null)
+					primedSet.fired(n, timeKeeper.getTime());
+			} else if (!frozen) {
+				removePerpetualFiring(n);
 			}
 			if (monitoredChild != null && n.equals(monitoredChild))
 				updateCycleTracking(n);
 		}
 		seen.clear();
+		if (primedSet != null)
+			primedSet.settle(timeKeeper.getTime());
 	}
 	
 	private void updateCycleTracking (Neuron n) {
@@ -240,6 +422,115 @@ public class NeuronHierarchy implements Serializable {
 		suspectedCap = null;
 		monitoredChild = null;
 		foundNeuronCap = true;
+		
+		if (changeLog != null)
+			changeLog.capFound();
+	}
+	
+	/**
+	 * Freezes the hierarchy, releasing the memory and all structures
+	 * used only for learning. Neurons can no longer be added.
+	 */
+	void freeze () {
+		frozen = true;
+		memory = null;
+		memoryManager = null;
+		structureIndex.clear();
+		perpetualFiring.clear();
+		suspectedCap = null;
+		monitoredChild = null;
+	}
+	
+	/**
+	 * Sets the change log to which all structural changes are written,
+	 * or stops logging if null.
+	 */
+	void setChangeLog (ChangeLog _changeLog) {
+		changeLog = _changeLog;
+	}
+	
+	void addFiringListener (FiringListener l) {
+		if (listeners == null) {
+			listeners = new FiringListener[] {l};
+		} else {
+			FiringListener[] more = Arrays.copyOf(listeners, listeners.length + 1);
+			more[listeners.length] = l;
+			listeners = more;
+		}
+	}
+	
+	void removeFiringListener (FiringListener l) {
+		if (listeners == null)
+			return;
+		ArrayList<FiringListener> rest = new ArrayList<FiringListener>(Arrays.asList(listeners));
+		rest.remove(l);
+		listeners = rest.isEmpty() ? null : rest.toArray(new FiringListener[rest.size()]);
+	}
+	
+	/**
+	 * Replaces the memory linked to this hierarchy.
+	 */
+	void setMemory (Memory _mem, MemoryManager _memManager) {
+		memory = _mem;
+		memoryManager = _memManager;
+	}
+	
+	/**
+	 * Applies the changes recorded in a change log which follows the
+	 * snapshot this hierarchy was restored from. Time is moved along to
+	 * that of the last change. Returns true if any change was applied.
+	 */
+	boolean replay (ChangeLog.Reader in) throws IOException {
+		boolean changed = false;
+		
+		int kind;
+		while ((kind = in.next()) != ChangeLog.END) {
+			changed = true;
+			if (kind == ChangeLog.TIME) {
+				timeKeeper.setTime(in.getTime());
+			} else if (kind == ChangeLog.ADD) {
+				replayAdd(in.getId(), in.getIds(), in.getValues());
+			} else if (kind == ChangeLog.KILL) {
+				Neuron n = getNeuronByID(in.getId());
+				if (n == null)
+					throw new IOException("Change log kills unknown neuron " + in.getId());
+				hierarchy.get(n.getHeight()).remove(n);
+				removeNeuron(n);
+			} else if (kind == ChangeLog.SCORES) {
+				long[] ids = in.getIds();
+				int[] scores = in.getValues();
+				for (int i = 0; i < ids.length; i++) {
+					Neuron n = getNeuronByID(ids[i]);
+					if (n != null)
+						n.setScore(scores[i]);
+				}
+			} else if (kind == ChangeLog.CAP) {
+				foundNeuronCap = true;
+			}
+		}
+		
+		// Cap tracking will start over
+		suspectedCap = null;
+		monitoredChild = null;
+		childFiringCount = 0;
+		
+		return changed;
+	}
+	
+	private void replayAdd (long id, long[] childIds, int[] childDelays) throws IOException {
+		Neuron[] foundation = new Neuron[childIds.length];
+		Integer[] delays = new Integer[childIds.length];
+		for (int i = 0; i < childIds.length; i++) {
+			foundation[i] = getNeuronByID(childIds[i]);
+			if (foundation[i] == null)
+				throw new IOException("Change log adds neuron " + id + " upon unknown neuron " + childIds[i]);
+			delays[i] = childDelays[i];
+		}
+		
+		Neuron n = new Neuron(foundation, delays, timeKeeper);
+		addNeuron(n);
+		if (n.getId() != id)
+			throw new IOException("Change log does not follow its snapshot");
 	}
 	
 	/**
@@ -247,6 +538,8 @@ public class NeuronHierarchy implements Serializable {
 	 * the hierarchy, this neuron is given a unique id.
 	 */
 	public void addNeuron (Neuron n) {
+		assert !frozen;
+		
 		int height = n.getHeight();
 		if (hierarchy.size() <= height)
 			hierarchy.add(new LinkedList<Neuron>());
@@ -255,9 +548,198 @@ public class NeuronHierarchy implements Serializable {
 		n.setID(neuronCount++);
 
 		neuronRegistry.put(n.getId(), n);
+		if (changeLog != null)
+			changeLog.neuronAdded(n);
+		if (listeners != null)
+			for (FiringListener l : listeners)
+				l.neuronAdded(n, timeKeeper.getTime());
+		indexStructure(n);
+		addPerpetualFiring(n);
+		if (inputIndex != null)
+			inputIndex.add(n, getReceptiveField(n));
+		if (primedSet != null)
+			primedSet.add(n, timeKeeper.getTime());
+		links += n.getChildren().size();
+		changedLevels.set(height);
 		currentNeurons++;
 	}
 	
+	/**
+	 * Returns the latest view published, or null if none has been
+	 */
+	public HierarchyView getView () {
+		return view;
+	}
+	
+	/**
+	 * Publishes a view of the hierarchy as it stands. This must only be 
+	 * called by the thread which steps the hierarchy, between steps. The
+	 * levels of the view which have not changed are shared with the last.
+	 */
+	public HierarchyView publishView () {
+		int levels = hierarchy.size();
+		if (viewIds == null) {
+			viewIds = new long[0][];
+			viewChildren = new long[0][][];
+			changedLevels.set(0, levels);
+		}
+		if (levels != viewIds.length || !changedLevels.isEmpty()) {
+			// Published views hold the old arrays, so these are copied
+			changedLevels.set(viewIds.length, levels);
+			viewIds = Arrays.copyOf(viewIds, levels);
+			viewChildren = Arrays.copyOf(viewChildren, levels);
+			for (int l = changedLevels.nextSetBit(0); l >= 0 && l < levels; l = changedLevels.nextSetBit(l + 1)) {
+				LinkedList<Neuron> level = hierarchy.get(l);
+				long[] ids = new long[level.size()];
+				long[][] children = new long[level.size()][];
+				int i = 0;
+				for (Neuron n : level) {
+					ids[i] = n.getId();
+					ArrayList<Neuron> c = n.getChildren();
+					children[i] = new long[c.size()];
+					for (int j = 0; j < c.size(); j++)
+						children[i][j] = c.get(j).getId();
+					i++;
+				}
+				viewIds[l] = ids;
+				viewChildren[l] = children;
+			}
+			changedLevels.clear();
+		}
+		
+		PrimedSet primed = getPrimedSet();
+		int[][] scores = new int[levels][];
+		byte[][] flags = new byte[levels][];
+		for (int l = 0; l < levels; l++) {
+			LinkedList<Neuron> level = hierarchy.get(l);
+			scores[l] = new int[level.size()];
+			flags[l] = new byte[level.size()];
+			int i = 0;
+			for (Neuron n : level) {
+				scores[l][i] = n.getScore();
+				byte f = 0;
+				if (n.firing())
+					f |= HierarchyView.FIRING;
+				if (n.temporal())
+					f |= HierarchyView.TEMPORAL;
+				if (primed.contains(n))
+					f |= HierarchyView.PRIMED;
+				flags[l][i] = f;
+				i++;
+			}
+		}
+		
+		view = new HierarchyView(timeKeeper.getTime(), viewIds, viewChildren, scores, flags);
+		return view;
+	}
+	
+	/**
+	 * Adds the estimated bytes held by the neurons, their links and the
+	 * indexes of neurons to the footprint.
+	 */
+	public void measure (Footprint footprint) {
+		footprint.add(Footprint.NEURONS, (currentNeurons + neuronBase.length) * NEURON_BYTES);
+		footprint.add(Footprint.ADJACENCY, links * LINK_BYTES);
+		footprint.add(Footprint.REGISTRY, (long) neuronRegistry.size() * REGISTRY_BYTES 
+				+ (long) structureIndex.size() * STRUCTURE_BYTES);
+		if (inputIndex != null)
+			footprint.add(Footprint.INPUTS, (long) inputIndex.size() * INPUT_NEURON_BYTES
+					+ inputIndex.getCells() * INPUT_CELL_BYTES);
+	}
+	
+	/**
+	 * Returns the neuron in this hierarchy which rests upon the given
+	 * foundation with the given delays, or null if there is no such 
+	 * neuron. This should be checked before creating a new neuron so 
+	 * that no duplicate neurons are created.
+	 */
+	public Neuron findNeuron (Neuron[] foundation, Integer[] delays) {
+		StructureKey key = StructureKey.create(foundation, delays);
+		if (key == null)
+			return null;
+		return structureIndex.get(key);
+	}
+	
+	/**
+	 * Records the structure of neuron n so that duplicates of it can be found.
+	 */
+	private void indexStructure (Neuron n) {
+		ArrayList<Neuron> children = n.getChildren();
+		StructureKey key = StructureKey.create(
+				children.toArray(new Neuron[children.size()]), n.getDelays());
+		if (key != null && !structureIndex.containsKey(key))
+			structureIndex.put(key, n);
+	}
+	
+	/**
+	 * Removes neuron n from the structure index. This must be called 
+	 * before the neuron is killed as killing it removes its children.
+	 */
+	private void unindexStructure (Neuron n) {
+		ArrayList<Neuron> children = n.getChildren();
+		StructureKey key = StructureKey.create(
+				children.toArray(new Neuron[children.size()]), n.getDelays());
+		if (key != null && structureIndex.get(key) == n)
+			structureIndex.remove(key);
+	}
+	
+	/**
+	 * The structure of a neuron is the set of (child id, delay) pairs
+	 * upon which it rests. Pairs are kept sorted so that the order in 
+	 * which the foundation was given does not matter.
+	 */
+	private static class StructureKey {
+		private final long[] ids;
+		private final int[] delays;
+		private final int hash;
+		
+		private StructureKey (long[] _ids, int[] _delays) {
+			ids = _ids;
+			delays = _delays;
+			hash = 31 * Arrays.hashCode(ids) + Arrays.hashCode(delays);
+		}
+		
+		/**
+		 * Creates the key for the given foundation and delays. Returns null
+		 * if some neuron in the foundation has not yet been given an id, as is 
+		 * the case for the base neurons.
+		 */
+		static StructureKey create (Neuron[] foundation, Integer[] _delays) {
+			int len = foundation.length;
+			long[] ids = new long[len];
+			int[] delays = new int[len];
+			
+			// Insertion sort on (id, delay) as foundations are small
+			for (int i = 0; i < len; i++) {
+				long id = foundation[i].getId();
+				int delay = _delays[i];
+				if (id < 0)
+					return null;
+				
+				int j = i - 1;
+				while (j >= 0 && (ids[j] > id || ids[j] == id && delays[j] > delay)) {
+					ids[j+1] = ids[j];
+					delays[j+1] = delays[j];
+					j--;
+				}
+				ids[j+1] = id;
+				delays[j+1] = delay;
+			}
+			return new StructureKey(ids, delays);
+		}
+		
+		public int hashCode () {
+			return hash;
+		}
+		
+		public boolean equals (Object o) {
+			if (!(o instanceof StructureKey))
+				return false;
+			StructureKey other = (StructureKey) o;
+			return Arrays.equals(ids, other.ids) && Arrays.equals(delays, other.delays);
+		}
+	}
+	
 	/**
 	 * Creates a two-level neuron array:
 	 * 
@@ -311,6 +793,175 @@ public class NeuronHierarchy implements Serializable {
 		return neuronBase;
 	}
 	
+	/**
+	 * Returns the receptive field of neuron n, or null if n is dead. Each
+	 * neuron keeps its field once worked out, so a neuron is only ever 
+	 * expanded once, however many parents share it, and only down to 
+	 * the children whose fields are not yet known.
+	 */
+	public ReceptiveField getReceptiveField (Neuron n) {
+		// Fields are held here while they are needed, as neurons only
+		// hold them softly
+		IdentityHashMap<Neuron,ReceptiveField> found = new IdentityHashMap<Neuron,ReceptiveField>();
+		LinkedList<Neuron> stack = new LinkedList<Neuron>();
+		stack.push(n);
+		while (!stack.isEmpty()) {
+			Neuron top = stack.peek();
+			if (findField(top, found) != null) {
+				stack.pop();
+				continue;
+			}
+			if (top.dead())
+				return null;
+			
+			ReceptiveField field;
+			if (top.getHeight() == 0) {
+				field = ReceptiveField.of(getInput(top));
+			} else {
+				ArrayList<Neuron> children = top.getChildren();
+				ReceptiveField[] fields = new ReceptiveField[children.size()];
+				for (int i = 0; i < fields.length; i++)
+					if ((fields[i] = findField(children.get(i), found)) == null)
+						stack.push(children.get(i));
+				if (stack.peek() != top)
+					continue;
+				
+				Integer[] delays = top.getDelays();
+				int[] shifts = new int[delays.length];
+				for (int i = 0; i < shifts.length; i++)
+					shifts[i] = delays[i];
+				field = ReceptiveField.union(fields, shifts);
+			}
+			top.setField(field);
+			found.put(top, field);
+			stack.pop();
+		}
+		return found.get(n);
+	}
+	
+	/**
+	 * Returns the field of neuron n if it is known, holding on to it
+	 */
+	private static ReceptiveField findField (Neuron n, IdentityHashMap<Neuron,ReceptiveField> found) {
+		ReceptiveField field = found.get(n);
+		if (field == null && (field = n.getField()) != null)
+			found.put(n, field);
+		return field;
+	}
+	
+	/**
+	 * Returns the index of the neurons responding to each input, indexing
+	 * every living neuron the first time it is asked for. From then on
+	 * the index is kept as neurons are added and killed.
+	 */
+	public InputIndex getInputIndex () {
+		if (inputIndex == null) {
+			InputIndex index = new InputIndex();
+			for (LinkedList<Neuron> level : hierarchy)
+				for (Neuron n : level)
+					if (!n.dead())
+						index.add(n, getReceptiveField(n));
+			inputIndex = index;
+		}
+		return inputIndex;
+	}
+	
+	/**
+	 * Drops the input index, along with the fields it holds.
+	 */
+	public void dropInputIndex () {
+		inputIndex = null;
+	}
+	
+	/**
+	 * Returns the temporal neurons which are primed, finding them among 
+	 * every neuron the first time they are asked for. From then on they 
+	 * are kept as the hierarchy steps.
+	 */
+	PrimedSet getPrimedSet () {
+		if (primedSet == null) {
+			PrimedSet set = new PrimedSet();
+			for (LinkedList<Neuron> level : hierarchy)
+				for (Neuron n : level)
+					if (!n.dead())
+						set.add(n, timeKeeper.getTime());
+			primedSet = set;
+		}
+		return primedSet;
+	}
+	
+	/**
+	 * Returns the inputs expected to fire at each of the next horizon 
+	 * steps. A primed neuron is expected to fire once the firings of its 
+	 * delayed children come due, and its whole receptive field with it,
+	 * so each primed neuron predicts the inputs of its field which fall 
+	 * after the current step. The work done is thus in proportion to the
+	 * neurons primed rather than to the size of the hierarchy. Nothing 
+	 * is predicted if horizon is not positive.
+	 */
+	public int[][] predictInputs (int horizon) {
+		if (horizon <= 0)
+			return new int[0][];
+		
+		int now = timeKeeper.getTime();
+		ArrayList<TreeSet<Integer>> expected = new ArrayList<TreeSet<Integer>>(horizon);
+		for (int i = 0; i < horizon; i++)
+			expected.add(new TreeSet<Integer>());
+		
+		for (Neuron n : getPrimedSet().getNeurons()) {
+			ReceptiveField field = getReceptiveField(n);
+			for (int time : findDueTimes(n, now)) {
+				for (int i = 0; i < field.size(); i++) {
+					int step = time - field.getOffset(i) - now;
+					if (step > 0 && step <= horizon)
+						expected.get(step - 1).add(field.getInput(i));
+				}
+			}
+		}
+		
+		int[][] inputs = new int[horizon][];
+		for (int i = 0; i < horizon; i++) {
+			inputs[i] = new int[expected.get(i).size()];
+			int j = 0;
+			for (int input : expected.get(i))
+				inputs[i][j++] = input;
+		}
+		return inputs;
+	}
+	
+	/**
+	 * Returns the times after now at which the firings of every delayed 
+	 * child of temporal neuron n come due
+	 */
+	private static ArrayList<Integer> findDueTimes (Neuron n, int now) {
+		ArrayList<Integer> times = null;
+		Integer[] delays = n.getDelays();
+		for (int i = 0; i < delays.length; i++) {
+			if (delays[i] == 0)
+				continue;
+			WrappedList<Integer> pending = n.getPendingFirings(i);
+			ArrayList<Integer> due = new ArrayList<Integer>();
+			for (int j = 0; j < pending.size(); j++)
+				if (pending.get(j) > now && (times == null || times.contains(pending.get(j))))
+					due.add(pending.get(j));
+			times = due;
+		}
+		return times == null ? new ArrayList<Integer>() : times;
+	}
+	
+	/**
+	 * Returns the index of the base neuron under a level zero neuron
+	 */
+	private int getInput (Neuron n) {
+		if (baseInputs == null) {
+			IdentityHashMap<Neuron,Integer> inputs = new IdentityHashMap<Neuron,Integer>();
+			for (int i = 0; i < neuronBase.length; i++)
+				inputs.put(neuronBase[i], i);
+			baseInputs = inputs;
+		}
+		return baseInputs.get(n.getChildren().get(0));
+	}
+	
 	public ArrayList<LinkedList<Neuron>> getHierarchy () {
 		return hierarchy;
 	}
@@ -324,4 +975,286 @@ public class NeuronHierarchy implements Serializable {
 			return neuronRegistry.get(id);
 		return null;
 	}
+	
+	/**
+	 * Writes the hierarchy to a snapshot. Neurons are numbered with the 
+	 * base neurons first followed by each level in turn, so that every
+	 * child is numbered before its parents. This numbering is used in 
+	 * place of references between neurons.
+	 */
+	void writeSnapshot (SnapshotWriter out) throws IOException {
+		ArrayList<Neuron> order = new ArrayList<Neuron>();
+		Hashtable<Neuron,Integer> index = new Hashtable<Neuron,Integer>();
+		for (Neuron n : neuronBase) {
+			index.put(n, order.size());
+			order.add(n);
+		}
+		for (LinkedList<Neuron> level : hierarchy)
+			for (Neuron n : level) {
+				index.put(n, order.size());
+				order.add(n);
+			}
+		
+		out.beginSection(Snapshot.HIERARCHY);
+		out.putLong(neuronCount);
+		out.putLong(currentNeurons);
+		out.putBoolean(frozen);
+		out.putBoolean(foundNeuronCap);
+		out.putLong(suspectedCap == null ? -1 : suspectedCap.getId());
+		out.putLong(monitoredChild == null ? -1 : monitoredChild.getId());
+		out.putBoolean(childFiring);
+		out.putInt(childFiringCount);
+		out.putInt(neuronBase.length);
+		out.putInt(hierarchy.size());
+		for (LinkedList<Neuron> level : hierarchy)
+			out.putInt(level.size());
+		out.endSection();
+		
+		out.beginSection(Snapshot.NEURONS);
+		out.putInt(order.size());
+		for (Neuron n : order)
+			out.putLong(n.getId());
+		for (Neuron n : order)
+			out.putInt(n.getHeight());
+		for (Neuron n : order)
+			out.putInt(n.getScore());
+		for (Neuron n : order)
+			out.putInt(n.getLastFiringTime());
+		for (Neuron n : order)
+			out.putInt(n.getLastNonFiringTime());
+		for (Neuron n : order)
+			out.putBoolean(n.dead());
+		out.endSection();
+		
+		out.beginSection(Snapshot.FLAGS);
+		for (Neuron n : order) {
+			byte flags = 0;
+			if (n.temporal())
+				flags |= Snapshot.FLAG_TEMPORAL;
+			if (!n.dead() && n.primed())
+				flags |= Snapshot.FLAG_PRIMED;
+			out.putByte(flags);
+		}
+		out.endSection();
+		
+		out.beginSection(Snapshot.ADJACENCY);
+		int edges = 0;
+		for (Neuron n : order) {
+			out.putInt(edges);
+			edges += n.getChildren().size();
+		}
+		out.putInt(edges);
+		for (Neuron n : order)
+			for (Neuron child : n.getChildren())
+				out.putInt(index.get(child));
+		for (Neuron n : order)
+			for (int delay : n.getDelays())
+				out.putInt(delay);
+		
+		// Pending firings of each child, in the same order as the children
+		for (Neuron n : order) {
+			for (int i = 0; i < n.getDelays().length; i++) {
+				WrappedList<Integer> pending = n.getPendingFirings(i);
+				if (pending == null) {
+					out.putInt(0);
+					continue;
+				}
+				out.putInt(pending.size());
+				for (int j = 0; j < pending.size(); j++)
+					out.putInt(pending.get(j));
+			}
+		}
+		out.endSection();
+	}
+	
+	/**
+	 * Restores a hierarchy written by writeSnapshot. The hierarchy 
+	 * must be newly constructed.
+	 */
+	void readSnapshot (SnapshotReader in) throws IOException {
+		readNeurons(in);
+		readAdjacency(in);
+	}
+	
+	/**
+	 * Restores the levels and neurons of a snapshot, leaving the children
+	 * of each neuron to be paged in when first needed. The snapshot must
+	 * be kept open until then. The hierarchy must be newly constructed.
+	 */
+	void readSnapshotLazily (SnapshotReader in) throws IOException {
+		readNeurons(in);
+		
+		// Without flags neurons cannot be shown without their children
+		if (!in.hasSection(Snapshot.FLAGS)) {
+			readAdjacency(in);
+			return;
+		}
+		
+		in.openSection(Snapshot.FLAGS);
+		byte[] flags = in.getBytes(snapshotOrder.length);
+		pagingSnapshot = in;
+		for (int n = 0; n < snapshotOrder.length; n++)
+			snapshotOrder[n].pageFrom(this, flags[n]);
+	}
+	
+	/**
+	 * Reads the children of every neuron of a lazily read hierarchy, 
+	 * if they have not been already. Other threads wait until every 
+	 * neuron has its children and parents. Should reading them fail, 
+	 * the failure is thrown to every caller from then on.
+	 */
+	void pageInAdjacency () {
+		SnapshotReader in = pagingSnapshot;
+		if (in == null)
+			return;
+		
+		synchronized (in) {
+			if (pagingFailure != null)
+				throw pagingFailure;
+			// The thread paging in meets neurons still waiting on it
+			if (pagingSnapshot == null || pagingIn)
+				return;
+			pagingIn = true;
+			try {
+				readAdjacency(in);
+			} catch (IOException e) {
+				pagingFailure = new RuntimeException("Unable to page in neurons from snapshot", e);
+				throw pagingFailure;
+			} catch (RuntimeException e) {
+				pagingFailure = e;
+				throw e;
+			} finally {
+				pagingIn = false;
+			}
+			pagingSnapshot = null;
+		}
+	}
+	
+	/**
+	 * Reads the levels and neurons of a snapshot, without their children.
+	 */
+	private void readNeurons (SnapshotReader in) throws IOException {
+		in.openSection(Snapshot.HIERARCHY);
+		neuronCount = in.getLong();
+		currentNeurons = in.getLong();
+		frozen = in.getBoolean();
+		foundNeuronCap = in.getBoolean();
+		long suspectedCapId = in.getLong();
+		long monitoredChildId = in.getLong();
+		childFiring = in.getBoolean();
+		childFiringCount = in.getInt();
+		int baseCount = in.getInt();
+		int[] levelSizes = in.getInts(in.getInt());
+		
+		in.openSection(Snapshot.NEURONS);
+		int count = in.getInt();
+		long[] ids = in.getLongs(count);
+		int[] heights = in.getInts(count);
+		int[] scores = in.getInts(count);
+		int[] lastFiringTimes = in.getInts(count);
+		int[] lastNonFiringTimes = in.getInts(count);
+		byte[] dead = in.getBytes(count);
+		
+		Neuron[] order = new Neuron[count];
+		for (int n = 0; n < count; n++)
+			order[n] = new Neuron(ids[n], heights[n], scores[n], lastFiringTimes[n], 
+					lastNonFiringTimes[n], dead[n] != 0, timeKeeper);
+		snapshotOrder = order;
+		
+		neuronBase = new Neuron[baseCount];
+		System.arraycopy(order, 0, neuronBase, 0, baseCount);
+		
+		int n = baseCount;
+		for (int levelSize : levelSizes) {
+			LinkedList<Neuron> level = new LinkedList<Neuron>();
+			for (int i = 0; i < levelSize; i++) {
+				Neuron neuron = order[n++];
+				level.add(neuron);
+				neuronRegistry.put(neuron.getId(), neuron);
+			}
+			hierarchy.add(level);
+		}
+		
+		if (suspectedCapId >= 0)
+			suspectedCap = getNeuronByID(suspectedCapId);
+		if (monitoredChildId >= 0)
+			monitoredChild = getNeuronByID(monitoredChildId);
+	}
+	
+	/**
+	 * Gives the neurons read by readNeurons their children, then links
+	 * their parents and indexes them.
+	 */
+	private void readAdjacency (SnapshotReader in) throws IOException {
+		Neuron[] order = snapshotOrder;
+		int count = order.length;
+		
+		in.openSection(Snapshot.ADJACENCY);
+		int[] childStart = in.getInts(count + 1);
+		int[] childIndex = in.getInts(childStart[count]);
+		int[] delays = in.getInts(childStart[count]);
+		
+		for (int n = 0; n < count; n++) {
+			int start = childStart[n];
+			int len = childStart[n+1] - start;
+			Neuron[] foundation = new Neuron[len];
+			Integer[] neuronDelays = new Integer[len];
+			for (int i = 0; i < len; i++) {
+				assert childIndex[start + i] < n;
+				foundation[i] = order[childIndex[start + i]];
+				neuronDelays[i] = delays[start + i];
+			}
+			
+			Neuron neuron = order[n];
+			neuron.setFoundation(foundation, neuronDelays);
+			for (int i = 0; i < len; i++) {
+				int pendingCount = in.getInt();
+				WrappedList<Integer> pending = neuron.getPendingFirings(i);
+				for (int j = 0; j < pendingCount; j++)
+					pending.add(in.getInt());
+			}
+		}
+		Neuron.linkParents(Arrays.asList(order));
+		links = childStart[count];
+		
+		if (!frozen) {
+			for (int n = neuronBase.length; n < count; n++) {
+				if (!order[n].dead()) {
+					indexStructure(order[n]);
+					addPerpetualFiring(order[n]);
+				}
+			}
+		}
+		for (Neuron n : order)
+			n.pagedIn();
+		snapshotOrder = null;
+	}
+	
+	/**
+	 * The parents of each neuron, the count of links, the structure 
+	 * index, perpetual firing neurons and changed levels are not 
+	 * serialized and must be rebuilt from the neurons in the hierarchy. 
+	 * Every neuron has been fully read by this point.
+	 */
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		for (LinkedList<Neuron> level : hierarchy) {
+			Neuron.linkParents(level);
+			for (Neuron n : level)
+				if (n.getChildren() != null)
+					links += n.getChildren().size();
+		}
+		
+		structureIndex = new Hashtable<StructureKey,Neuron>();
+		perpetualFiring = new ArrayList<LinkedHashSet<Neuron>>();
+		changedLevels = new BitSet();
+		if (frozen)
+			return;
+		for (LinkedList<Neuron> level : hierarchy)
+			for (Neuron n : level)
+				if (!n.dead()) {
+					indexStructure(n);
+					addPerpetualFiring(n);
+				}
+	}
 }
@@ -0,0 +1,112 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The temporal neurons which are primed, kept as the hierarchy steps. A
+ * neuron can only become primed when one of its children fires, and can
+ * only stop being primed once the firing of a child is more than its
+ * delay in the past. So each step only the parents of the neurons which
+ * fired, and the neurons whose child firings lapse that step, need to
+ * be checked again.
+ */
+class PrimedSet {
+	private LinkedHashSet<Neuron> primed = new LinkedHashSet<Neuron>();
+
+	/**
+	 * The neurons to be checked again at the end of each step, by the time
+	 * at which one of their child firings lapses
+	 */
+	private TreeMap<Integer,ArrayList<Neuron>> lapses = new TreeMap<Integer,ArrayList<Neuron>>();
+
+	/**
+	 * The parents of the neurons which fired this step
+	 */
+	private ArrayList<Neuron> candidates = new ArrayList<Neuron>();
+
+
+	//<><(8)><>//
+
+
+	/**
+	 * Notes that neuron n has fired at the given time.
+	 */
+	void fired (Neuron n, int time) {
+		for (Neuron parent : n.getParents()) {
+			if (!parent.temporal())
+				continue;
+			candidates.add(parent);
+			ArrayList<Neuron> children = parent.getChildren();
+			Integer[] delays = parent.getDelays();
+			for (int i = 0; i < delays.length; i++)
+				if (delays[i] > 0 && children.get(i) == n)
+					lapse(parent, time + delays[i]);
+		}
+	}
+
+	/**
+	 * Adds neuron n, which may already be primed by children which fired
+	 * before it was made.
+	 */
+	void add (Neuron n, int time) {
+		if (!n.temporal())
+			return;
+		ArrayList<Neuron> children = n.getChildren();
+		Integer[] delays = n.getDelays();
+		for (int i = 0; i < delays.length; i++) {
+			int lapse = children.get(i).getLastFiringTime() + delays[i];
+			if (delays[i] > 0 && lapse > time)
+				lapse(n, lapse);
+		}
+		if (n.primed())
+			primed.add(n);
+	}
+
+	void remove (Neuron n) {
+		primed.remove(n);
+	}
+
+	/**
+	 * Checks again the parents of the neurons which fired and the neurons
+	 * whose child firings have lapsed by the given time. Called once every
+	 * neuron has been updated for the step.
+	 */
+	void settle (int time) {
+		while (!lapses.isEmpty() && lapses.firstKey() <= time)
+			candidates.addAll(lapses.remove(lapses.firstKey()));
+		for (Neuron n : candidates) {
+			if (!n.dead() && n.primed())
+				primed.add(n);
+			else
+				primed.remove(n);
+		}
+		candidates.clear();
+	}
+
+	private void lapse (Neuron n, int time) {
+		ArrayList<Neuron> due = lapses.get(time);
+		if (due == null)
+			lapses.put(time, due = new ArrayList<Neuron>());
+		due.add(n);
+	}
+
+	boolean contains (Neuron n) {
+		return primed.contains(n);
+	}
+
+	/**
+	 * Returns the primed neurons, in the order they were primed. The set
+	 * changes as the hierarchy steps.
+	 */
+	Set<Neuron> getNeurons () {
+		return Collections.unmodifiableSet(primed);
+	}
+
+	int size () {
+		return primed.size();
+	}
+}
@@ -0,0 +1,137 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * The inputs a neuron responds to: each input of the base level together
+ * with its offset, the number of steps before the neuron fires that the
+ * input must have fired. A neuron's field is the union of those of its
+ * children, each shifted by the child's delay, so fields are built from
+ * the bottom of the hierarchy up and never change once built.
+ */
+public class ReceptiveField {
+	/**
+	 * Each (offset, input) pair packed as offset << 32 | input, sorted
+	 * and without duplicates
+	 */
+	private final long[] cells;
+
+
+	//<><(8)><>//
+
+
+	private ReceptiveField (long[] _cells) {
+		cells = _cells;
+	}
+
+	/**
+	 * Returns the field of a single input at offset zero
+	 */
+	static ReceptiveField of (int input) {
+		return new ReceptiveField(new long[] {input});
+	}
+
+	/**
+	 * Returns the union of the given fields, each shifted back by the
+	 * delay of the same index.
+	 */
+	static ReceptiveField union (ReceptiveField[] fields, int[] delays) {
+		int total = 0;
+		for (ReceptiveField f : fields)
+			total += f.cells.length;
+
+		long[] cells = new long[total];
+		int k = 0;
+		for (int i = 0; i < fields.length; i++) {
+			long shift = (long) delays[i] << 32;
+			for (long cell : fields[i].cells)
+				cells[k++] = cell + shift;
+		}
+		if (fields.length > 1)
+			Arrays.sort(cells);
+
+		int distinct = 0;
+		for (int i = 0; i < cells.length; i++)
+			if (distinct == 0 || cells[i] != cells[distinct - 1])
+				cells[distinct++] = cells[i];
+		return new ReceptiveField(distinct == cells.length ? cells : Arrays.copyOf(cells, distinct));
+	}
+
+	/**
+	 * Returns the number of (input, offset) pairs in the field
+	 */
+	public int size () {
+		return cells.length;
+	}
+
+	/**
+	 * Returns the input of the ith pair. Pairs are ordered by offset and
+	 * then by input.
+	 */
+	public int getInput (int i) {
+		return (int) cells[i];
+	}
+
+	public int getOffset (int i) {
+		return (int) (cells[i] >>> 32);
+	}
+
+	/**
+	 * Returns the ith pair, packed as by cell
+	 */
+	long getCell (int i) {
+		return cells[i];
+	}
+
+	/**
+	 * Packs an (input, offset) pair into a single key
+	 */
+	static long cell (int input, int offset) {
+		return (long) offset << 32 | input;
+	}
+
+	/**
+	 * Returns the largest offset in the field
+	 */
+	public int getSpan () {
+		return cells.length == 0 ? 0 : getOffset(cells.length - 1);
+	}
+
+	public boolean contains (int input, int offset) {
+		return Arrays.binarySearch(cells, cell(input, offset)) >= 0;
+	}
+
+	/**
+	 * Returns the inputs at the given offset, in order
+	 */
+	public int[] getInputs (int offset) {
+		int from = lowerBound(cell(0, offset));
+		int to = lowerBound(cell(0, offset + 1));
+		int[] inputs = new int[to - from];
+		for (int i = from; i < to; i++)
+			inputs[i - from] = getInput(i);
+		return inputs;
+	}
+
+	/**
+	 * Returns the index of the first cell no less than key
+	 */
+	private int lowerBound (long key) {
+		int i = Arrays.binarySearch(cells, key);
+		return i >= 0 ? i : -i - 1;
+	}
+
+	/**
+	 * Lists the inputs at each offset, earliest first
+	 */
+	public String toString () {
+		StringBuilder sb = new StringBuilder();
+		for (int offset = getSpan(); offset >= 0; offset--) {
+			sb.append(offset + ":");
+			for (int input : getInputs(offset))
+				sb.append(" " + input);
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+}
@@ -1,14 +1,34 @@
 package core;
 
-import haus.util.WrappedList;
-
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import core.memory.FiringEventLog;
+import core.memory.FiringHistoryStore;
+import core.memory.FiringList;
+import core.memory.FiringListener;
 import core.memory.Memory;
 import core.memory.MemoryManager;
+import core.memory.MemorySlice;
 import core.memory.PatternMatcher;
+import core.snapshot.ChangeLog;
+import core.snapshot.Snapshot;
+import core.snapshot.SnapshotReader;
+import core.snapshot.SnapshotWriter;
 
 /**
  * The sensory relay transmits data between the sense
@@ -25,6 +45,13 @@ public class SensoryRelay implements Serializable {
 	 */
 	public static final int DELETE_INTERVAL = 5000;
 	
+	/**
+	 * Java serialization recurses down through the children of each 
+	 * neuron, so deep hierarchies are deserialized on a thread with
+	 * a stack of this size.
+	 */
+	private static final long DESERIALIZE_STACK_SIZE = 1L << 30;
+	
 	/**
 	 * Source of sensory data.
 	 */
@@ -61,6 +88,65 @@ public class SensoryRelay implements Serializable {
 	 */
 	private TimeKeeper timeKeeper = new TimeKeeper();
 	
+	/**
+	 * A frozen relay only propagates sensory input through
+	 * the hierarchy. Nothing is remembered or learned.
+	 */
+	private boolean frozen = false;
+	
+	/**
+	 * Records structural changes made since the last checkpoint, if
+	 * change logging has been enabled.
+	 */
+	private transient ChangeLog changeLog = null;
+	
+	/**
+	 * Checkpoints are written to this prefix followed by SNAPSHOT_SUFFIX.
+	 * The change log following each checkpoint is written to this prefix
+	 * followed by LOG_SUFFIX and the time of the checkpoint.
+	 */
+	private transient String checkpointPrefix;
+	
+	/**
+	 * The number of steps between checkpoints
+	 */
+	private transient int checkpointInterval;
+	
+	/**
+	 * The checkpoint being written in the background, if any
+	 */
+	private transient Future<Void> pendingCheckpoint = null;
+	
+	/**
+	 * The snapshot this relay was opened lazily from, until every part
+	 * of it has been paged in
+	 */
+	private transient volatile SnapshotReader lazySnapshot = null;
+	
+	/**
+	 * Receives firings and the creation and deletion of neurons, if 
+	 * event logging has been enabled.
+	 */
+	private transient FiringEventLog eventLog = null;
+	
+	/**
+	 * Keeps the long term firing history of every neuron, if enabled
+	 */
+	private transient FiringHistoryStore history = null;
+	
+	/**
+	 * The bytes the memory is sized to keep within, or zero if the 
+	 * memory has its fixed length
+	 */
+	private transient long memoryBudget = 0;
+	
+	/**
+	 * Which parts of a lazily opened snapshot have been paged in
+	 */
+	private transient boolean slicesPaged, postingsPaged;
+	
+	public static final String SNAPSHOT_SUFFIX = ".snap", LOG_SUFFIX = ".log";
+	
 	
 	//<><(8)><>//
 	
@@ -71,16 +157,553 @@ public class SensoryRelay implements Serializable {
 	public SensoryRelay (Sense _sense) {
 		sense = _sense;
 		
+		hier = new NeuronHierarchy(timeKeeper, null, null);
+		createMemory();
+		
+		base = hier.createInitialNeurons(sense.getInputLength());
+	}
+	
+	/**
+	 * Creates an empty memory along with the memory manager and pattern
+	 * matcher, and links them to the hierarchy.
+	 */
+	private void createMemory () {
+		releaseBudget();
 		patternMatcher = new PatternMatcher(timeKeeper);
 		memory = new Memory(timeKeeper, patternMatcher);
+		if (memoryBudget > 0)
+			memory.setBudget(memoryBudget);
 		memoryManager = new MemoryManager(timeKeeper, memory);
-		hier = new NeuronHierarchy(timeKeeper, memory, memoryManager);
+		if (eventLog != null)
+			memoryManager.addFiringListener(eventLog);
+		if (history != null)
+			memoryManager.addFiringListener(history);
+		hier.setMemory(memory, memoryManager);
 		
 		patternMatcher.setMemory(memory);
 		patternMatcher.setMemoryManager(memoryManager);
 		patternMatcher.setHierarchy(hier);
+	}
+	
+	/**
+	 * Restores a sensory relay from a snapshot. A lazy relay restores
+	 * only the levels and neurons straight away, and keeps the snapshot
+	 * open to page in the rest when it is needed.
+	 */
+	private SensoryRelay (SnapshotReader in, boolean lazy) throws IOException {
+		in.openSection(Snapshot.RELAY);
+		timeKeeper = new TimeKeeper(in.getInt());
+		frozen = in.getBoolean();
 		
-		base = hier.createInitialNeurons(sense.getInputLength());
+		in.openSection(Snapshot.SENSE);
+		sense = readSense(in.getBytes(in.getInt()));
+		
+		hier = new NeuronHierarchy(timeKeeper, null, null);
+		if (!frozen)
+			createMemory();
+		
+		if (lazy) {
+			hier.readSnapshotLazily(in);
+			base = hier.getBase();
+			lazySnapshot = in;
+			return;
+		}
+		
+		hier.readSnapshot(in);
+		base = hier.getBase();
+		
+		if (!frozen) {
+			memory.readSnapshot(in, hier);
+			patternMatcher.readSnapshot(in);
+			memoryManager.readSnapshot(in, hier);
+		}
+	}
+	
+	/**
+	 * Loads a sensory relay which was saved through java serialization.
+	 * Reading recurses down through the children of each neuron, so it
+	 * is done on a thread with a stack of DESERIALIZE_STACK_SIZE. The 
+	 * parents of each neuron are linked once all neurons have been read
+	 * rather than during the recursive reading of each neuron.
+	 */
+	static SensoryRelay readSerialized (final String filename) {
+		final SensoryRelay[] relay = new SensoryRelay[1];
+		final Throwable[] error = new Throwable[1];
+		
+		Thread reader = new Thread(null, new Runnable() {
+			public void run () {
+				try {
+					relay[0] = (SensoryRelay) haus.io.Serializer.deserialize(filename);
+				} catch (Throwable t) {
+					error[0] = t;
+				}
+			}
+		}, "Deserializer", DESERIALIZE_STACK_SIZE);
+		
+		reader.start();
+		try {
+			reader.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while loading " + filename, e);
+		}
+		
+		if (error[0] != null)
+			throw new RuntimeException("Unable to load " + filename, error[0]);
+		return relay[0];
+	}
+	
+	/**
+	 * Recovers a sensory relay from its last checkpoint and change logs. 
+	 * The log following the checkpoint is replayed, along with any later
+	 * logs whose checkpoints were not yet written. The structure of the 
+	 * hierarchy and its scores are recovered as they were at the last 
+	 * logged change. If any changes were replayed, the memory of the 
+	 * checkpoint no longer lines up and is started afresh.
+	 */
+	static SensoryRelay recover (String prefix) throws IOException {
+		SensoryRelay relay = readSnapshot(prefix + SNAPSHOT_SUFFIX);
+		int checkpointTime = relay.getTime();
+		
+		TreeMap<Integer,File> logs = findLogs(prefix);
+		
+		// Logs before the checkpoint are already part of it
+		if (!logs.containsKey(checkpointTime))
+			return relay;
+		
+		boolean changed = false;
+		for (File logFile : logs.tailMap(checkpointTime).values()) {
+			ChangeLog.Reader in = new ChangeLog.Reader(logFile.getPath());
+			try {
+				changed |= relay.hier.replay(in);
+			} finally {
+				in.close();
+			}
+		}
+		
+		if (changed)
+			relay.resetMemory();
+		return relay;
+	}
+	
+	/**
+	 * Finds the change logs written under the given prefix, keyed by
+	 * the time of the checkpoint each follows.
+	 */
+	private static TreeMap<Integer,File> findLogs (String prefix) {
+		File base = new File(prefix).getAbsoluteFile();
+		String start = base.getName() + LOG_SUFFIX + ".";
+		
+		TreeMap<Integer,File> logs = new TreeMap<Integer,File>();
+		File[] files = base.getParentFile().listFiles();
+		if (files == null)
+			return logs;
+		
+		for (File f : files) {
+			if (!f.getName().startsWith(start))
+				continue;
+			try {
+				logs.put(Integer.parseInt(f.getName().substring(start.length())), f);
+			} catch (NumberFormatException e) {
+				// Not one of ours
+			}
+		}
+		return logs;
+	}
+	
+	/**
+	 * Replaces the memory with an empty one in which every neuron of
+	 * the hierarchy is indexed.
+	 */
+	private void resetMemory () {
+		createMemory();
+		for (LinkedList<Neuron> level : hier.getHierarchy())
+			for (Neuron n : level)
+				memory.ensureIndexed(n);
+	}
+	
+	/**
+	 * Starts writing a checkpoint every interval steps, and logging all
+	 * structural changes made between checkpoints. A checkpoint is 
+	 * written straight away. Any logs left under the prefix by an 
+	 * earlier run are deleted.
+	 */
+	void enableChangeLog (String prefix, int interval) throws IOException {
+		finishCheckpoint();
+		for (File log : findLogs(prefix).values())
+			log.delete();
+		
+		checkpointPrefix = prefix;
+		checkpointInterval = interval;
+		checkpoint();
+		finishCheckpoint();
+	}
+	
+	/**
+	 * Captures a new checkpoint and starts a new change log to follow it. 
+	 * The checkpoint is written in the background while stepping carries
+	 * on, and replaces the last one only once it is complete. Until then 
+	 * the old checkpoint and both logs still recover the relay.
+	 */
+	private void checkpoint () throws IOException {
+		finishCheckpoint();
+		
+		final String prefix = checkpointPrefix;
+		final int time = timeKeeper.getTime();
+		final SnapshotWriter image = captureSnapshot();
+		
+		if (changeLog != null)
+			changeLog.close();
+		changeLog = new ChangeLog(prefix + LOG_SUFFIX + "." + time, timeKeeper);
+		hier.setChangeLog(changeLog);
+		
+		pendingCheckpoint = Snapshot.writeInBackground(new Callable<Void>() {
+			public Void call () throws IOException {
+				commitCheckpoint(prefix, image, time);
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Writes out a captured checkpoint, replaces the last one with it
+	 * and deletes the logs it makes redundant.
+	 */
+	private static void commitCheckpoint (String prefix, SnapshotWriter image, int time) throws IOException {
+		File snapshot = new File(prefix + SNAPSHOT_SUFFIX);
+		File temp = new File(prefix + SNAPSHOT_SUFFIX + ".tmp");
+		image.writeTo(temp.getPath());
+		replace(temp, snapshot);
+		
+		for (Map.Entry<Integer,File> log : findLogs(prefix).entrySet())
+			if (log.getKey() < time)
+				log.getValue().delete();
+	}
+	
+	/**
+	 * Renames the temp file to the target, replacing it.
+	 */
+	private static void replace (File temp, File target) throws IOException {
+		if (!temp.renameTo(target)) {
+			target.delete();
+			if (!temp.renameTo(target))
+				throw new IOException("Unable to replace " + target);
+		}
+	}
+	
+	/**
+	 * Waits for the checkpoint being written in the background, if any,
+	 * and throws any error it met.
+	 */
+	private void finishCheckpoint () throws IOException {
+		if (pendingCheckpoint == null)
+			return;
+		
+		try {
+			pendingCheckpoint.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing checkpoint", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Unable to write checkpoint", e.getCause());
+		} finally {
+			pendingCheckpoint = null;
+		}
+	}
+	
+	/**
+	 * Starts streaming every remembered firing, and the creation and 
+	 * deletion of neurons, to the given file. Any earlier event log is
+	 * closed.
+	 */
+	FiringEventLog enableEventLog (String filename, int capacity) throws IOException {
+		disableEventLog();
+		eventLog = new FiringEventLog(filename, capacity);
+		addFiringListener(eventLog);
+		return eventLog;
+	}
+	
+	/**
+	 * Stops event logging, writing out any events still pending.
+	 */
+	void disableEventLog () {
+		if (eventLog == null)
+			return;
+		
+		removeFiringListener(eventLog);
+		eventLog.close();
+		eventLog = null;
+	}
+	
+	/**
+	 * Starts adding every remembered firing to the firing history store
+	 * in the given directory. Any history already there is kept and 
+	 * added to, unless it runs past the current time, as the firings of
+	 * this relay would then be lost among it.
+	 */
+	FiringHistoryStore enableFiringHistory (String directory) throws IOException {
+		disableFiringHistory();
+		FiringHistoryStore store = new FiringHistoryStore(directory);
+		if (store.getLatestTime() > getTime()) {
+			store.close();
+			throw new IOException("Firing history in " + directory + " runs to time " + 
+					store.getLatestTime() + ", past the current time " + getTime());
+		}
+		history = store;
+		addFiringListener(history);
+		return history;
+	}
+	
+	/**
+	 * Stops adding to the firing history store and closes it.
+	 */
+	void disableFiringHistory () {
+		if (history == null)
+			return;
+		
+		removeFiringListener(history);
+		history.close();
+		history = null;
+	}
+	
+	FiringHistoryStore getFiringHistory () {
+		return history;
+	}
+	
+	/**
+	 * Sizes the memory window to keep the memory within the given 
+	 * number of bytes, or restores its fixed length if bytes is not 
+	 * positive.
+	 */
+	void setMemoryBudget (long bytes) {
+		memoryBudget = Math.max(bytes, 0);
+		if (memory == null)
+			return;
+		pageInAll();
+		memory.setBudget(memoryBudget);
+	}
+	
+	/**
+	 * Returns the number of active slices the memory may hold, or zero
+	 * if frozen
+	 */
+	int getMemoryWindow () {
+		return memory == null ? 0 : memory.getWindow();
+	}
+	
+	/**
+	 * Stops the budget of the memory, if any, from listening for heap
+	 * pressure once the memory is let go.
+	 */
+	private void releaseBudget () {
+		if (memory != null && memory.getBudget() != null)
+			memory.getBudget().close();
+	}
+	
+	private void addFiringListener (FiringListener l) {
+		hier.addFiringListener(l);
+		if (memoryManager != null)
+			memoryManager.addFiringListener(l);
+	}
+	
+	private void removeFiringListener (FiringListener l) {
+		hier.removeFiringListener(l);
+		if (memoryManager != null)
+			memoryManager.removeFiringListener(l);
+	}
+	
+	/**
+	 * Called at the end of each step to keep the change log up to date.
+	 */
+	private void updateChangeLog () {
+		if (changeLog == null)
+			return;
+		
+		if (timeKeeper.getTime() % checkpointInterval != 0) {
+			changeLog.flush();
+			return;
+		}
+		
+		try {
+			checkpoint();
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write checkpoint", e);
+		}
+	}
+	
+	/**
+	 * Loads a sensory relay from the given snapshot file.
+	 */
+	static SensoryRelay readSnapshot (String filename) throws IOException {
+		SnapshotReader in = new SnapshotReader(filename);
+		try {
+			return new SensoryRelay(in, false);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Opens a sensory relay from the given snapshot file lazily. The 
+	 * children of neurons, the memory slices and the firing index are
+	 * paged in from the file when first asked for. Everything else is 
+	 * paged in before the relay is stepped, frozen or written out.
+	 */
+	static SensoryRelay openSnapshot (String filename) throws IOException {
+		SnapshotReader in = new SnapshotReader(filename);
+		try {
+			return new SensoryRelay(in, true);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+	
+	private void pageInSlices () {
+		SnapshotReader in = lazySnapshot;
+		if (in == null || frozen)
+			return;
+		
+		synchronized (in) {
+			if (slicesPaged)
+				return;
+			try {
+				memory.readSlices(in, hier);
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to page in memory from snapshot", e);
+			}
+			slicesPaged = true;
+		}
+	}
+	
+	private void pageInPostings () {
+		SnapshotReader in = lazySnapshot;
+		if (in == null || frozen)
+			return;
+		
+		synchronized (in) {
+			if (postingsPaged)
+				return;
+			try {
+				memory.readPostings(in, hier);
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to page in firings from snapshot", e);
+			}
+			postingsPaged = true;
+		}
+	}
+	
+	/**
+	 * Pages in whatever is left of a lazily opened snapshot and closes it.
+	 */
+	private void pageInAll () {
+		SnapshotReader in = lazySnapshot;
+		if (in == null)
+			return;
+		
+		hier.pageInAdjacency();
+		pageInSlices();
+		pageInPostings();
+		synchronized (in) {
+			try {
+				if (!frozen) {
+					patternMatcher.readSnapshot(in);
+					memoryManager.readSnapshot(in, hier);
+				}
+				in.close();
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to page in snapshot", e);
+			}
+			lazySnapshot = null;
+		}
+	}
+	
+	/**
+	 * Writes this sensory relay, along with everything it coordinates,
+	 * to the given snapshot file. The sense is the only part to go 
+	 * through java serialization as it may be any class at all. The
+	 * snapshot is written beside the file and renamed into place, so 
+	 * the file is left as it was if writing fails.
+	 */
+	void writeSnapshot (String filename) throws IOException {
+		pageInAll();
+		File temp = new File(filename + ".tmp");
+		SnapshotWriter out = new SnapshotWriter(temp.getPath());
+		boolean written = false;
+		try {
+			writeSnapshot(out);
+			written = true;
+		} finally {
+			if (!written) {
+				out.abort();
+				temp.delete();
+			}
+		}
+		replace(temp, new File(filename));
+	}
+	
+	/**
+	 * Captures a snapshot of this sensory relay in memory. This is much
+	 * quicker than writing to a file, and the captured snapshot may be 
+	 * written out by another thread while stepping carries on.
+	 */
+	SnapshotWriter captureSnapshot () throws IOException {
+		pageInAll();
+		SnapshotWriter image = new SnapshotWriter();
+		writeSnapshot(image);
+		return image;
+	}
+	
+	private void writeSnapshot (SnapshotWriter out) throws IOException {
+		out.beginSection(Snapshot.RELAY);
+		out.putInt(timeKeeper.getTime());
+		out.putBoolean(frozen);
+		out.endSection();
+		
+		byte[] senseBytes = writeSense();
+		out.beginSection(Snapshot.SENSE);
+		out.putInt(senseBytes.length);
+		out.putBytes(senseBytes);
+		out.endSection();
+		
+		hier.writeSnapshot(out);
+		
+		if (!frozen) {
+			memory.writeSnapshot(out);
+			patternMatcher.writeSnapshot(out);
+			memoryManager.writeSnapshot(out);
+		}
+		
+		out.close();
+	}
+	
+	private byte[] writeSense () throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(sense);
+		out.close();
+		return bytes.toByteArray();
+	}
+	
+	private static Sense readSense (byte[] senseBytes) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(senseBytes));
+		try {
+			return (Sense) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unable to restore sense", e);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Budgets are not serialized, so a memory window sized by one is put
+	 * back to its fixed length, as it is when reading a snapshot.
+	 */
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (memory != null)
+			memory.setBudget(0);
 	}
 		
 	/**
@@ -91,7 +714,18 @@ public class SensoryRelay implements Serializable {
 	 * 3. Cue NeuronHierarchy to update all neurons
 	 */
 	public void step () {
+		if (lazySnapshot != null)
+			pageInAll();
+		
 		timeKeeper.step();
+		
+		if (frozen) {
+			updateBaseLevel();
+			hier.updateHierarchy();
+			publishView();
+			return;
+		}
+		
 		memoryManager.startStep();
 		
 		updateBaseLevel();
@@ -108,6 +742,54 @@ public class SensoryRelay implements Serializable {
 			if (timeKeeper.getTime() % DELETE_INTERVAL == 0)
 				hier.deleteUnusedNeurons();
 		}
+		
+		updateChangeLog();
+		publishView();
+	}
+	
+	/**
+	 * Publishes a view of the hierarchy once the step is done, as long 
+	 * as someone has asked for one.
+	 */
+	private void publishView () {
+		if (hier.getView() != null)
+			hier.publishView();
+	}
+	
+	/**
+	 * Returns the view of the hierarchy published after the latest step,
+	 * or null if none has been asked for yet.
+	 */
+	public HierarchyView getHierarchyView () {
+		return hier.getView();
+	}
+	
+	/**
+	 * Publishes a view of the hierarchy now. From then on a new view is
+	 * published after every step.
+	 */
+	public HierarchyView publishHierarchyView () {
+		if (lazySnapshot != null)
+			pageInAll();
+		return hier.publishView();
+	}
+	
+	/**
+	 * Stops all learning and releases the memory, memory manager
+	 * and pattern matcher.
+	 */
+	public void freeze () {
+		pageInAll();
+		frozen = true;
+		hier.freeze();
+		releaseBudget();
+		memory = null;
+		memoryManager = null;
+		patternMatcher = null;
+	}
+	
+	public boolean frozen () {
+		return frozen;
 	}
 	
 	private void updateBaseLevel () {
@@ -127,15 +809,78 @@ public class SensoryRelay implements Serializable {
 		return hier.getNeuronCount();
 	}
 	
+	NeuronHierarchy getHierarchy () {
+		return hier;
+	}
+	
+	/**
+	 * Returns the estimated bytes held by each part of this relay. Parts
+	 * of a lazily opened snapshot not yet paged in hold nothing.
+	 */
+	public Footprint getFootprint () {
+		Footprint footprint = new Footprint();
+		hier.measure(footprint);
+		if (memory != null) {
+			memory.measure(footprint);
+			patternMatcher.measure(footprint);
+			memoryManager.measure(footprint);
+		}
+		return footprint;
+	}
+	
 	public String getMemoryRepresentation () {
+		if (frozen)
+			return "Frozen: no memory";
+		pageInSlices();
 		return memory.toString();
 	}
 	
+	/**
+	 * Returns the slices of the memory from time from to time to, oldest
+	 * first. A frozen relay has none.
+	 */
+	public Iterator<MemorySlice> getMemorySlices (int from, int to) {
+		if (frozen)
+			return Collections.<MemorySlice>emptyList().iterator();
+		pageInSlices();
+		return memory.getSlices(from, to);
+	}
+	
+	/**
+	 * Returns the earliest time held by the memory, or the current time 
+	 * if the relay is frozen
+	 */
+	public int getOldestMemoryTime () {
+		if (frozen)
+			return getTime();
+		pageInSlices();
+		return memory.getOldestTime();
+	}
+	
+	public ReceptiveField getReceptiveField (Neuron n) {
+		return hier.getReceptiveField(n);
+	}
+	
+	public InputIndex getInputIndex () {
+		return hier.getInputIndex();
+	}
+	
+	public void dropInputIndex () {
+		hier.dropInputIndex();
+	}
+	
+	public int[][] predictInputs (int horizon) {
+		return hier.predictInputs(horizon);
+	}
+	
 	public Neuron getNeuronByID (long id) {
 		return hier.getNeuronByID(id);
 	}
 	
-	public WrappedList<Integer> getNeuronFirings (Neuron n) {
+	public FiringList getNeuronFirings (Neuron n) {
+		if (frozen)
+			return null;
+		pageInPostings();
 		return memory.getNeuronFirings(n);
 	}
 	
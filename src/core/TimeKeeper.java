@@ -13,6 +13,15 @@ public class TimeKeeper implements Serializable {
 	 */
 	private int time = -1;
 	
+	public TimeKeeper () {}
+	
+	/**
+	 * Creates a time keeper starting at the given time step
+	 */
+	TimeKeeper (int _time) {
+		time = _time;
+	}
+	
 	/**
 	 * Returns the current time step
 	 */
@@ -20,6 +29,13 @@ public class TimeKeeper implements Serializable {
 		return time;
 	}
 	
+	/**
+	 * Moves directly to the given time step
+	 */
+	void setTime (int _time) {
+		time = _time;
+	}
+	
 	/**
 	 * Increments time
 	 */
@@ -0,0 +1,223 @@
+package core.memory;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import core.Neuron;
+
+/**
+ * The cold tier of the memory: slices which have aged out of the hot
+ * window. Only permanent firings are kept, so a slice is no more than a
+ * plain array of the neurons which fired, held in time order. Firings
+ * may still be added to and removed from cold slices as neurons are
+ * re-indexed.
+ */
+class ColdMemory implements Serializable {
+	private static final long serialVersionUID = -4419508870391672515L;
+
+	private static final Neuron[] EMPTY = new Neuron[0];
+
+	/**
+	 * The time and neurons of each slice, from index start on
+	 */
+	private int[] times = new int[16];
+	private Neuron[][] slices = new Neuron[16][];
+
+	private int start = 0;
+
+	private int count = 0;
+
+	/**
+	 * The number of slices which are not empty
+	 */
+	private int active = 0;
+
+	/**
+	 * The number of firings held in all slices
+	 */
+	private int firings = 0;
+
+
+	//<><(8)><>//
+
+
+	/**
+	 * Adds a slice later than every slice held.
+	 */
+	void addSlice (int time, Neuron[] neurons) {
+		assert count == 0 || time > times[start + count - 1];
+		if (neurons.length == 0)
+			return;
+		if (start + count == times.length)
+			makeRoom();
+		times[start + count] = time;
+		slices[start + count] = neurons;
+		count++;
+		active++;
+		firings += neurons.length;
+	}
+
+	/**
+	 * Removes the oldest slice which is not empty, along with any empty
+	 * slices before it, and returns its neurons.
+	 */
+	Neuron[] removeSlice () {
+		while (count > 0) {
+			Neuron[] removed = slices[start];
+			slices[start] = null;
+			start++;
+			count--;
+			if (removed.length > 0) {
+				active--;
+				firings -= removed.length;
+				return removed;
+			}
+		}
+		return EMPTY;
+	}
+
+	/**
+	 * Returns the number of slices which are not empty
+	 */
+	int getActive () {
+		return active;
+	}
+
+	int getFirings () {
+		return firings;
+	}
+
+	boolean isEmpty () {
+		return count == 0;
+	}
+
+	int getSize () {
+		return count;
+	}
+
+	/**
+	 * Returns the time of the ith slice, oldest first
+	 */
+	int getTime (int i) {
+		return times[start + i];
+	}
+
+	/**
+	 * Returns the neurons of the ith slice, oldest first
+	 */
+	Neuron[] getSlice (int i) {
+		return slices[start + i];
+	}
+
+	/**
+	 * Returns the earliest time held, or Integer.MAX_VALUE if none is
+	 */
+	int getOldestTime () {
+		return count == 0 ? Integer.MAX_VALUE : times[start];
+	}
+
+	/**
+	 * Returns the latest time held, or Integer.MIN_VALUE if none is
+	 */
+	int getLatestTime () {
+		return count == 0 ? Integer.MIN_VALUE : times[start + count - 1];
+	}
+
+	boolean contains (Neuron n, int time) {
+		int i = find(time);
+		return i >= 0 && indexOf(slices[i], n) >= 0;
+	}
+
+	/**
+	 * Adds the firing of n at the given time, making a slice for it if
+	 * there is none.
+	 */
+	void add (Neuron n, int time) {
+		int i = find(time);
+		if (i < 0) {
+			if (start + count == times.length) {
+				makeRoom();
+				i = find(time);
+			}
+			i = -i - 1;
+			System.arraycopy(times, i, times, i + 1, start + count - i);
+			System.arraycopy(slices, i, slices, i + 1, start + count - i);
+			times[i] = time;
+			slices[i] = EMPTY;
+			count++;
+		}
+
+		Neuron[] slice = slices[i];
+		if (indexOf(slice, n) >= 0)
+			return;
+		if (slice.length == 0)
+			active++;
+		slice = Arrays.copyOf(slice, slice.length + 1);
+		slice[slice.length - 1] = n;
+		slices[i] = slice;
+		firings++;
+	}
+
+	/**
+	 * Removes the firing of n at the given time. An emptied slice is
+	 * kept until it ages out.
+	 */
+	void remove (Neuron n, int time) {
+		int i = find(time);
+		if (i < 0)
+			return;
+		Neuron[] slice = slices[i];
+		int j = indexOf(slice, n);
+		if (j < 0)
+			return;
+		firings--;
+
+		if (slice.length == 1) {
+			slices[i] = EMPTY;
+			active--;
+			return;
+		}
+		Neuron[] rest = new Neuron[slice.length - 1];
+		System.arraycopy(slice, 0, rest, 0, j);
+		System.arraycopy(slice, j + 1, rest, j, rest.length - j);
+		slices[i] = rest;
+	}
+
+	/**
+	 * Returns the index of the slice at the given time, or
+	 * -(insertion point) - 1 if there is none.
+	 */
+	private int find (int time) {
+		return Arrays.binarySearch(times, start, start + count, time);
+	}
+
+	private static int indexOf (Neuron[] slice, Neuron n) {
+		for (int i = 0; i < slice.length; i++)
+			if (slice[i] == n)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Shifts the slices to the front of the arrays, dropping empty ones,
+	 * and grows the arrays if they are more than half full.
+	 */
+	private void makeRoom () {
+		int kept = 0;
+		for (int i = start; i < start + count; i++) {
+			if (slices[i].length == 0)
+				continue;
+			times[kept] = times[i];
+			slices[kept] = slices[i];
+			kept++;
+		}
+		Arrays.fill(slices, kept, slices.length, null);
+		start = 0;
+		count = kept;
+
+		if (count * 2 > times.length) {
+			times = Arrays.copyOf(times, times.length * 2);
+			slices = Arrays.copyOf(slices, slices.length * 2);
+		}
+	}
+}
@@ -0,0 +1,339 @@
+package core.memory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import core.Neuron;
+
+/**
+ * Streams every firing remembered by the memory manager, along with the
+ * creation and deletion of neurons, to a file for offline analysis of
+ * whole runs.
+ *
+ * Events are put into a ring by the stepping thread and drained to the
+ * file by a background thread, with no locking between the two. Should
+ * the writer fall behind and the ring fill up, further events are
+ * dropped and counted rather than holding up the step. See getDropped.
+ *
+ * The file begins with MAGIC and VERSION. Each record is then a kind
+ * byte followed by its value:
+ *
+ * TIME: the time step of the records which follow
+ * FIRE, ADD, KILL: the id of the neuron
+ */
+public class FiringEventLog implements FiringListener {
+	public static final int MAGIC = 0x4952464C; // "IRFL"
+
+	public static final int VERSION = 1;
+
+	public static final int END = -1, TIME = 1, FIRE = 2, ADD = 3, KILL = 4;
+
+	/**
+	 * The default number of events the ring holds
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * How long the writer sleeps when there is nothing to write
+	 */
+	private static final long IDLE_NANOS = 1000000;
+
+	/**
+	 * How many events are put between looks at how many are waiting
+	 */
+	private static final int SAMPLE_INTERVAL = 64;
+
+	/**
+	 * The ring of events. Event i is held at index i & mask.
+	 */
+	private final long[] ids;
+	private final int[] times;
+	private final byte[] kinds;
+	private final int mask;
+
+	/**
+	 * The number of events put into the ring. Only the stepping thread
+	 * sets this.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * The number of events taken from the ring. Only the writer sets this.
+	 */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * The stepping thread's last look at head
+	 */
+	private long knownHead = 0;
+
+	private volatile long dropped = 0;
+
+	private volatile long peakPending = 0;
+
+	private final FileChannel channel;
+
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	/**
+	 * The time of the last TIME record written
+	 */
+	private int loggedTime = Integer.MIN_VALUE;
+
+	private final Thread writer;
+
+	private volatile boolean closing = false;
+
+	private volatile IOException failure = null;
+
+
+	//<><(8)><>//
+
+
+	public FiringEventLog (String filename) throws IOException {
+		this(filename, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Starts a new log whose ring holds at least capacity events.
+	 */
+	public FiringEventLog (String filename, int capacity) throws IOException {
+		int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+		ids = new long[size];
+		times = new int[size];
+		kinds = new byte[size];
+		mask = size - 1;
+
+		channel = new FileOutputStream(filename).getChannel();
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+
+		writer = new Thread(new Runnable() {
+			public void run () {
+				drain();
+			}
+		}, "Firing Event Writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	public void fired (Neuron n, int time) {
+		put(FIRE, n.getId(), time);
+	}
+
+	public void neuronAdded (Neuron n, int time) {
+		put(ADD, n.getId(), time);
+	}
+
+	public void neuronKilled (Neuron n, int time) {
+		put(KILL, n.getId(), time);
+	}
+
+	/**
+	 * Puts an event into the ring, or drops it if the ring is full.
+	 * This must only be called by one thread at a time.
+	 */
+	private void put (int kind, long id, int time) {
+		long t = tail.get();
+		if (t - knownHead > mask) {
+			knownHead = head.get();
+			if (t - knownHead > mask) {
+				peakPending = t - knownHead;
+				dropped++;
+				return;
+			}
+		}
+
+		int i = (int) t & mask;
+		ids[i] = id;
+		times[i] = time;
+		kinds[i] = (byte) kind;
+		tail.lazySet(t + 1);
+
+		if ((t & (SAMPLE_INTERVAL - 1)) == 0) {
+			knownHead = head.get();
+			if (t + 1 - knownHead > peakPending)
+				peakPending = t + 1 - knownHead;
+		}
+	}
+
+	/**
+	 * Run by the writer: moves events from the ring to the file until
+	 * the log is closed.
+	 */
+	private void drain () {
+		try {
+			while (true) {
+				long h = head.get();
+				long t = tail.get();
+				if (h == t) {
+					if (closing && tail.get() == h)
+						break;
+					flush();
+					LockSupport.parkNanos(IDLE_NANOS);
+					continue;
+				}
+
+				for (; h < t; h++) {
+					int i = (int) h & mask;
+					if (times[i] != loggedTime) {
+						ensure(1 + 4);
+						buffer.put((byte) TIME);
+						buffer.putInt(times[i]);
+						loggedTime = times[i];
+					}
+					ensure(1 + 8);
+					buffer.put(kinds[i]);
+					buffer.putLong(ids[i]);
+				}
+				head.lazySet(t);
+			}
+			flush();
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	private void ensure (int bytes) throws IOException {
+		if (buffer.remaining() < bytes)
+			flush();
+	}
+
+	private void flush () throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Writes out every event left in the ring and closes the file.
+	 */
+	public void close () {
+		closing = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		try {
+			channel.close();
+		} catch (IOException e) {
+			if (failure == null)
+				failure = e;
+		}
+		if (failure != null)
+			throw new RuntimeException("Unable to write firing event log", failure);
+	}
+
+	/**
+	 * Returns the number of events dropped because the ring was full.
+	 * A growing count means the disk cannot keep up with the run.
+	 */
+	public long getDropped () {
+		return dropped;
+	}
+
+	/**
+	 * Returns the number of events waiting to be written
+	 */
+	public long getPending () {
+		return tail.get() - head.get();
+	}
+
+	/**
+	 * Returns the most events seen waiting at once. This is sampled every
+	 * SAMPLE_INTERVAL events, so brief peaks may be missed.
+	 */
+	public long getPeakPending () {
+		return peakPending;
+	}
+
+	public int getCapacity () {
+		return mask + 1;
+	}
+
+	/**
+	 * Returns the error which stopped the writer, or null if there has
+	 * been none. Once the writer stops, every further event is dropped.
+	 */
+	public IOException getError () {
+		return failure;
+	}
+
+
+	/**
+	 * Reads the records of a firing event log in order. A record cut
+	 * short is treated as the end of the log.
+	 */
+	public static class Reader {
+		private DataInputStream in;
+
+		private int time = -1;
+
+		private long id;
+
+		public Reader (String filename) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+			if (in.readInt() != MAGIC)
+				throw new IOException(filename + " is not a firing event log");
+			if (in.readInt() > VERSION)
+				throw new IOException("Unsupported firing event log version");
+		}
+
+		/**
+		 * Reads the next event and returns its kind, FIRE, ADD or KILL,
+		 * or END if there are no more complete events.
+		 */
+		public int next () throws IOException {
+			try {
+				while (true) {
+					int kind = in.read();
+					if (kind < 0)
+						return END;
+
+					if (kind == TIME) {
+						time = in.readInt();
+					} else if (kind == FIRE || kind == ADD || kind == KILL) {
+						id = in.readLong();
+						return kind;
+					} else {
+						throw new IOException("Unknown firing event record " + kind);
+					}
+				}
+			} catch (EOFException e) {
+				return END;
+			}
+		}
+
+		/**
+		 * Returns the time step of the last event read
+		 */
+		public int getTime () {
+			return time;
+		}
+
+		/**
+		 * Returns the neuron id of the last event read
+		 */
+		public long getId () {
+			return id;
+		}
+
+		public void close () throws IOException {
+			in.close();
+		}
+	}
+}
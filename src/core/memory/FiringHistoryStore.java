@@ -0,0 +1,595 @@
+package core.memory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import core.Neuron;
+
+/**
+ * Keeps the firing history of every neuron on disk, long after it has
+ * left the memory window. Questions such as when a neuron fired between
+ * two distant time steps are answered without replaying the run.
+ *
+ * Firings are partitioned by neuron. The firing times of each neuron are
+ * gathered in memory until BLOCK_FIRINGS of them have been seen, then
+ * written out as a block of delta encoded varints. A sparse index holds
+ * the first and last time, the firing count and the place of every block.
+ * Queries thus read only the blocks overlapping the range asked for, and
+ * counting needs to read no block lying wholly within the range.
+ *
+ * A store is made up of two files in its directory. DATA_FILE holds
+ * MAGIC and VERSION followed by the blocks. INDEX_FILE holds MAGIC and
+ * VERSION followed by an entry for each block: neuron id, first time,
+ * last time, firing count, offset and length. Opening an existing store
+ * reads its index, and new firings are added to it.
+ *
+ * Only one store may write to a directory at a time. Others may open it
+ * read only, which never changes the files, and call refresh to see the
+ * blocks written since. The writer writes out every pending firing at
+ * least every FLUSH_INTERVAL steps, so readers lag by no more than that.
+ *
+ * Every method is synchronized, so the store may be queried while the
+ * core adds to it.
+ */
+public class FiringHistoryStore implements FiringListener {
+	public static final int MAGIC = 0x49524653; // "IRFS"
+
+	public static final int VERSION = 1;
+
+	public static final String DATA_FILE = "firings.dat", INDEX_FILE = "firings.idx";
+
+	/**
+	 * The number of firings gathered into each block
+	 */
+	public static final int BLOCK_FIRINGS = 256;
+
+	/**
+	 * The most steps a firing is held before being written out
+	 */
+	public static final int FLUSH_INTERVAL = 1000;
+
+	private static final int HEADER_LENGTH = 8;
+
+	private static final int INDEX_ENTRY_LENGTH = 8 + 4 + 4 + 4 + 8 + 4;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private FileChannel data;
+
+	private FileChannel index;
+
+	private final boolean readOnly;
+
+	/**
+	 * Held by a store which writes, to keep others from writing
+	 */
+	private FileLock lock;
+
+	/**
+	 * The length of the index file which has been read
+	 */
+	private long indexRead = HEADER_LENGTH;
+
+	/**
+	 * The time at which pending firings were last written out
+	 */
+	private int flushedTime = Integer.MIN_VALUE;
+
+	private ByteBuffer dataBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	private ByteBuffer indexBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	/**
+	 * The length of the data file including what is still buffered
+	 */
+	private long dataLength;
+
+	/**
+	 * Scratch space for encoding a block
+	 */
+	private byte[] encoded = new byte[5 * BLOCK_FIRINGS];
+
+	private Hashtable<Long,Partition> partitions = new Hashtable<Long,Partition>();
+
+	/**
+	 * The time of the latest firing held, written or not
+	 */
+	private int latestTime = Integer.MIN_VALUE;
+
+
+	//<><(8)><>//
+
+
+	/**
+	 * The firing history of a single neuron: the index of its blocks
+	 * and the firings not yet written in a block.
+	 */
+	private static class Partition {
+		int blocks = 0;
+		int[] firstTimes = new int[2];
+		int[] lastTimes = new int[2];
+		int[] counts = new int[2];
+		long[] offsets = new long[2];
+		int[] lengths = new int[2];
+
+		int[] pending = new int[8];
+		int pendingCount = 0;
+
+		/**
+		 * The time of the latest firing, written or not
+		 */
+		int lastTime = Integer.MIN_VALUE;
+
+		void addBlock (int firstTime, int lastTime, int count, long offset, int length) {
+			if (blocks == offsets.length) {
+				int size = 2 * blocks;
+				firstTimes = Arrays.copyOf(firstTimes, size);
+				lastTimes = Arrays.copyOf(lastTimes, size);
+				counts = Arrays.copyOf(counts, size);
+				offsets = Arrays.copyOf(offsets, size);
+				lengths = Arrays.copyOf(lengths, size);
+			}
+			firstTimes[blocks] = firstTime;
+			lastTimes[blocks] = lastTime;
+			counts[blocks] = count;
+			offsets[blocks] = offset;
+			lengths[blocks] = length;
+			blocks++;
+			this.lastTime = Math.max(this.lastTime, lastTime);
+		}
+
+		void addPending (int time) {
+			if (pendingCount == pending.length)
+				pending = Arrays.copyOf(pending, Math.min(Math.max(2 * pending.length, 8), BLOCK_FIRINGS));
+			pending[pendingCount++] = time;
+			lastTime = time;
+		}
+
+		/**
+		 * Returns the first block which ends at or after the given time
+		 */
+		int findBlock (int time) {
+			int low = 0, high = blocks;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (lastTimes[mid] < time)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * Opens the store in the given directory for writing, creating it if
+	 * need be. Index entries or blocks cut short by a crash are discarded.
+	 */
+	public FiringHistoryStore (String directory) throws IOException {
+		this(directory, false);
+	}
+
+	/**
+	 * Opens the store in the given directory. A store opened read only
+	 * must already exist, and firings may not be added to it.
+	 */
+	public FiringHistoryStore (String directory, boolean _readOnly) throws IOException {
+		readOnly = _readOnly;
+		File dir = new File(directory);
+		if (readOnly) {
+			data = new RandomAccessFile(new File(dir, DATA_FILE), "r").getChannel();
+			try {
+				index = new RandomAccessFile(new File(dir, INDEX_FILE), "r").getChannel();
+				checkHeader(data, directory);
+				checkHeader(index, directory);
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+			dataLength = HEADER_LENGTH;
+			readEntries();
+			return;
+		}
+
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Unable to create " + directory);
+		data = new RandomAccessFile(new File(dir, DATA_FILE), "rw").getChannel();
+		try {
+			index = new RandomAccessFile(new File(dir, INDEX_FILE), "rw").getChannel();
+			lock(directory);
+			dataLength = HEADER_LENGTH;
+
+			if (index.size() < HEADER_LENGTH || data.size() < HEADER_LENGTH) {
+				writeHeader(data);
+				writeHeader(index);
+				data.truncate(HEADER_LENGTH);
+				index.truncate(HEADER_LENGTH);
+			} else {
+				checkHeader(data, directory);
+				checkHeader(index, directory);
+				readEntries();
+				index.truncate(indexRead);
+				data.truncate(dataLength);
+			}
+
+			data.position(dataLength);
+			index.position(index.size());
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	private void lock (String directory) throws IOException {
+		try {
+			lock = index.tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		}
+		if (lock == null)
+			throw new IOException(directory + " is already being written to");
+	}
+
+	private static void writeHeader (FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.flip();
+		while (header.hasRemaining())
+			channel.write(header, header.position());
+	}
+
+	/**
+	 * Reads the index entries after those already read, up to the first
+	 * which is cut short or points past the end of the data.
+	 */
+	private void readEntries () throws IOException {
+		int entries = (int) ((index.size() - indexRead) / INDEX_ENTRY_LENGTH);
+		ByteBuffer in = ByteBuffer.allocate(entries * INDEX_ENTRY_LENGTH);
+		read(index, in, indexRead);
+		in.flip();
+
+		long dataSize = data.size();
+		for (int i = 0; i < entries; i++) {
+			long id = in.getLong();
+			int firstTime = in.getInt();
+			int lastTime = in.getInt();
+			int count = in.getInt();
+			long offset = in.getLong();
+			int length = in.getInt();
+			if (offset + length > dataSize)
+				break;
+
+			getPartition(id).addBlock(firstTime, lastTime, count, offset, length);
+			latestTime = Math.max(latestTime, lastTime);
+			dataLength = Math.max(dataLength, offset + length);
+			indexRead += INDEX_ENTRY_LENGTH;
+		}
+	}
+
+	/**
+	 * Reads the blocks written since the store was opened or last 
+	 * refreshed, if it was opened read only.
+	 */
+	public synchronized void refresh () {
+		if (!readOnly)
+			return;
+		try {
+			readEntries();
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to read firing history", e);
+		}
+	}
+
+	private static void checkHeader (FileChannel channel, String directory) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		read(channel, header, 0);
+		header.flip();
+		if (header.getInt() != MAGIC)
+			throw new IOException(directory + " is not a firing history store");
+		if (header.getInt() > VERSION)
+			throw new IOException("Unsupported firing history store version");
+	}
+
+	private static void read (FileChannel channel, ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining())
+			if (channel.read(buf, position + buf.position()) < 0)
+				throw new IOException("Unexpected end of firing history");
+	}
+
+	private Partition getPartition (long id) {
+		Partition p = partitions.get(id);
+		if (p == null) {
+			p = new Partition();
+			partitions.put(id, p);
+		}
+		return p;
+	}
+
+
+	/**
+	 * Returns the time of the latest firing held, or Integer.MIN_VALUE if
+	 * the store is empty. Firings at or before this time may be ignored,
+	 * so a run whose time starts over must not add to the store.
+	 */
+	public synchronized int getLatestTime () {
+		return latestTime;
+	}
+
+
+	//<><(Adding Firings)><>//
+
+
+	/**
+	 * Adds the firing of neuron n at the given time. Firings of each
+	 * neuron must be added in time order, and any which are not are
+	 * ignored.
+	 */
+	public synchronized void fired (Neuron n, int time) {
+		if (readOnly)
+			throw new IllegalStateException("Firing history opened read only");
+		Partition p = getPartition(n.getId());
+		if (time <= p.lastTime)
+			return;
+
+		p.addPending(time);
+		latestTime = Math.max(latestTime, time);
+		if (p.pendingCount == BLOCK_FIRINGS)
+			writeBlock(n.getId(), p);
+		if (time >= flushedTime + FLUSH_INTERVAL)
+			flush(time);
+	}
+
+	/**
+	 * Writes out every pending firing, so that stores opened read only
+	 * see them once refreshed.
+	 */
+	private void flush (int time) {
+		for (Enumeration<Long> ids = partitions.keys(); ids.hasMoreElements();) {
+			long id = ids.nextElement();
+			writeBlock(id, partitions.get(id));
+		}
+		try {
+			flushBuffers();
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write firing history", e);
+		}
+		flushedTime = time;
+	}
+
+	public void neuronAdded (Neuron n, int time) {
+	}
+
+	/**
+	 * Writes out the firings gathered for a neuron which has been killed,
+	 * as it will fire no more.
+	 */
+	public synchronized void neuronKilled (Neuron n, int time) {
+		if (readOnly)
+			return;
+		Partition p = partitions.get(n.getId());
+		if (p == null)
+			return;
+		writeBlock(n.getId(), p);
+		p.pending = new int[0];
+	}
+
+	/**
+	 * Writes the pending firings of a partition as a new block.
+	 */
+	private void writeBlock (long id, Partition p) {
+		if (p.pendingCount == 0)
+			return;
+
+		int length = 0;
+		int previous = 0;
+		for (int i = 0; i < p.pendingCount; i++) {
+			length = putVarint(encoded, length, p.pending[i] - previous);
+			previous = p.pending[i];
+		}
+
+		try {
+			if (dataBuffer.remaining() < length)
+				flushBuffers();
+			dataBuffer.put(encoded, 0, length);
+
+			if (indexBuffer.remaining() < INDEX_ENTRY_LENGTH)
+				flushBuffers();
+			indexBuffer.putLong(id);
+			indexBuffer.putInt(p.pending[0]);
+			indexBuffer.putInt(p.pending[p.pendingCount - 1]);
+			indexBuffer.putInt(p.pendingCount);
+			indexBuffer.putLong(dataLength);
+			indexBuffer.putInt(length);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write firing history", e);
+		}
+
+		p.addBlock(p.pending[0], p.pending[p.pendingCount - 1], p.pendingCount, dataLength, length);
+		dataLength += length;
+		p.pendingCount = 0;
+	}
+
+	/**
+	 * Writes buffered blocks and then their index entries to the files,
+	 * so that the index never points past the data.
+	 */
+	private void flushBuffers () throws IOException {
+		dataBuffer.flip();
+		while (dataBuffer.hasRemaining())
+			data.write(dataBuffer);
+		dataBuffer.clear();
+
+		indexBuffer.flip();
+		while (indexBuffer.hasRemaining())
+			index.write(indexBuffer);
+		indexBuffer.clear();
+	}
+
+	/**
+	 * Writes out every pending firing and closes the store.
+	 */
+	public synchronized void close () {
+		try {
+			if (!readOnly && lock != null) {
+				for (Enumeration<Long> ids = partitions.keys(); ids.hasMoreElements();) {
+					long id = ids.nextElement();
+					writeBlock(id, partitions.get(id));
+				}
+				flushBuffers();
+				data.force(false);
+				index.force(false);
+			}
+			// Closing the index releases the lock
+			if (index != null)
+				index.close();
+			data.close();
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to close firing history", e);
+		}
+	}
+
+
+	//<><(Queries)><>//
+
+
+	/**
+	 * Returns the times in [from, to) at which the neuron with the given
+	 * id fired, in order.
+	 */
+	public synchronized int[] getFirings (long id, int from, int to) {
+		Partition p = partitions.get(id);
+		if (p == null || from >= to)
+			return new int[0];
+
+		int[] out = new int[16];
+		int count = 0;
+		for (int b = p.findBlock(from); b < p.blocks && p.firstTimes[b] < to; b++) {
+			for (int time : readBlock(p, b)) {
+				if (time < from || time >= to)
+					continue;
+				if (count == out.length)
+					out = Arrays.copyOf(out, 2 * count);
+				out[count++] = time;
+			}
+		}
+
+		for (int i = 0; i < p.pendingCount; i++) {
+			int time = p.pending[i];
+			if (time < from || time >= to)
+				continue;
+			if (count == out.length)
+				out = Arrays.copyOf(out, 2 * count);
+			out[count++] = time;
+		}
+		return Arrays.copyOf(out, count);
+	}
+
+	/**
+	 * Returns the number of times in [from, to) at which the neuron with
+	 * the given id fired.
+	 */
+	public synchronized int countFirings (long id, int from, int to) {
+		Partition p = partitions.get(id);
+		if (p == null || from >= to)
+			return 0;
+
+		int count = 0;
+		for (int b = p.findBlock(from); b < p.blocks && p.firstTimes[b] < to; b++) {
+			if (p.firstTimes[b] >= from && p.lastTimes[b] < to) {
+				count += p.counts[b];
+				continue;
+			}
+			for (int time : readBlock(p, b))
+				if (time >= from && time < to)
+					count++;
+		}
+
+		for (int i = 0; i < p.pendingCount; i++)
+			if (p.pending[i] >= from && p.pending[i] < to)
+				count++;
+		return count;
+	}
+
+	/**
+	 * Returns the times t in [from, to) at which neuron a fired and
+	 * neuron b fired lag steps later, at t + lag.
+	 */
+	public synchronized int[] getCoFirings (long a, long b, int lag, int from, int to) {
+		int[] first = getFirings(a, from, to);
+		int[] second = getFirings(b, from + lag, to + lag);
+
+		int[] out = new int[Math.min(first.length, second.length)];
+		int count = 0;
+		for (int i = 0, j = 0; i < first.length && j < second.length;) {
+			int t = second[j] - lag;
+			if (first[i] < t) {
+				i++;
+			} else if (first[i] > t) {
+				j++;
+			} else {
+				out[count++] = first[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(out, count);
+	}
+
+	/**
+	 * Returns the ids of every neuron with a firing history
+	 */
+	public synchronized long[] getNeuronIds () {
+		long[] ids = new long[partitions.size()];
+		int i = 0;
+		for (Enumeration<Long> e = partitions.keys(); e.hasMoreElements();)
+			ids[i++] = e.nextElement();
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	private int[] readBlock (Partition p, int b) {
+		try {
+			if (p.offsets[b] + p.lengths[b] > dataLength - dataBuffer.position())
+				flushBuffers();
+
+			ByteBuffer in = ByteBuffer.allocate(p.lengths[b]);
+			read(data, in, p.offsets[b]);
+
+			int[] times = new int[p.counts[b]];
+			int time = 0, pos = 0;
+			byte[] bytes = in.array();
+			for (int i = 0; i < times.length; i++) {
+				int delta = 0, shift = 0;
+				byte next;
+				do {
+					next = bytes[pos++];
+					delta |= (next & 0x7F) << shift;
+					shift += 7;
+				} while ((next & 0x80) != 0);
+				time += delta;
+				times[i] = time;
+			}
+			return times;
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to read firing history", e);
+		}
+	}
+
+	private static int putVarint (byte[] out, int pos, int value) {
+		while ((value & ~0x7F) != 0) {
+			out[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out[pos++] = (byte) value;
+		return pos;
+	}
+}
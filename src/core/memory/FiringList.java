@@ -0,0 +1,146 @@
+package core.memory;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The times at which a neuron fired, kept in order in a plain int array
+ * rather than as a list of boxed Integers. Times are added to the end
+ * and forgotten from the front, as with a queue.
+ */
+public class FiringList extends AbstractList<Integer> implements Serializable {
+	private static final long serialVersionUID = 2918451736014402893L;
+
+	private int[] times;
+
+	/**
+	 * Index of the earliest time within times
+	 */
+	private int start = 0;
+
+	private int size = 0;
+
+
+	//<><(8)><>//
+
+
+	public FiringList () {
+		times = new int[4];
+	}
+
+	public FiringList (int capacity) {
+		times = new int[Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Copies the given list of firing times.
+	 */
+	public FiringList (List<Integer> l) {
+		this(l.size());
+		for (int time : l)
+			add(time);
+	}
+
+	public int size () {
+		return size;
+	}
+
+	public Integer get (int i) {
+		return getTime(i);
+	}
+
+	/**
+	 * Returns the ith time without boxing it
+	 */
+	public int getTime (int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		return times[start + i];
+	}
+
+	public boolean add (Integer time) {
+		add((int) time);
+		return true;
+	}
+
+	/**
+	 * Adds a firing time. Times are normally added in order; one which
+	 * is earlier than the latest is put in its place.
+	 */
+	public void add (int time) {
+		if (start + size == times.length)
+			makeRoom();
+
+		int i = start + size;
+		while (i > start && times[i - 1] > time) {
+			times[i] = times[i - 1];
+			i--;
+		}
+		times[i] = time;
+		size++;
+		modCount++;
+	}
+
+	/**
+	 * Removes and returns the earliest time.
+	 */
+	public int remove () {
+		if (size == 0)
+			throw new NoSuchElementException();
+		int time = times[start++];
+		size--;
+		if (size == 0)
+			start = 0;
+		modCount++;
+		return time;
+	}
+
+	/**
+	 * Returns true if the given time is in the list
+	 */
+	public boolean contains (int time) {
+		return Arrays.binarySearch(times, start, start + size, time) >= 0;
+	}
+
+	public boolean contains (Object o) {
+		return o instanceof Integer && contains(((Integer) o).intValue());
+	}
+
+	/**
+	 * Shifts the times to the front of the array, growing it if it is
+	 * more than half full.
+	 */
+	private void makeRoom () {
+		int[] dest = size * 2 > times.length ? new int[times.length * 2] : times;
+		System.arraycopy(times, start, dest, 0, size);
+		times = dest;
+		start = 0;
+	}
+
+	/**
+	 * Returns the times t in first such that t - offset is in second.
+	 * Both lists are walked once.
+	 */
+	public static FiringList intersect (FiringList first, FiringList second, int offset) {
+		FiringList out = new FiringList(Math.min(first.size, second.size));
+		int i = first.start, iEnd = first.start + first.size;
+		int j = second.start, jEnd = second.start + second.size;
+		while (i < iEnd && j < jEnd) {
+			int a = first.times[i];
+			int b = second.times[j] + offset;
+			if (a < b) {
+				i++;
+			} else if (a > b) {
+				j++;
+			} else {
+				out.add(a);
+				i++;
+				j++;
+			}
+		}
+		return out;
+	}
+}
@@ -0,0 +1,16 @@
+package core.memory;
+
+import core.Neuron;
+
+/**
+ * Receives the firings remembered by the memory manager, along with
+ * the creation and deletion of neurons, as they happen. Listeners are
+ * called on the stepping thread and should return quickly.
+ */
+public interface FiringListener {
+	public void fired (Neuron n, int time);
+
+	public void neuronAdded (Neuron n, int time);
+
+	public void neuronKilled (Neuron n, int time);
+}
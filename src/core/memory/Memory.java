@@ -2,25 +2,62 @@ package core.memory;
 
 import haus.util.WrappedList;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Hashtable;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
+import core.Footprint;
 import core.Neuron;
+import core.NeuronHierarchy;
 import core.TimeKeeper;
+import core.snapshot.Snapshot;
+import core.snapshot.SnapshotReader;
+import core.snapshot.SnapshotWriter;
 
 /**
  * Memory handles the storing and accessing the firing patterns
  * of individual neurons. 
+ * 
+ * Memory is split in two tiers. The most recent slices are hot: each 
+ * is a hash table open to every change made while stepping. Once the 
+ * hot tier is full its oldest slice is demoted to the cold tier, which 
+ * keeps only the neurons firing permanently in a plain array. Firing 
+ * times are indexed for both tiers, so the pattern matcher counts and 
+ * intersects firings across the whole horizon.
  */
 public class Memory implements Serializable {
 	private static final long serialVersionUID = 1086066787870727016L;
 		
 	/**
-	 * The length of the memory
+	 * The length of the hot memory
 	 */
 	private static final int MAX_ACTIVE_MEM_SLOTS = 1000;
+	
+	/**
+	 * The length of the cold memory
+	 */
+	private static final int MAX_COLD_MEM_SLOTS = 9 * MAX_ACTIVE_MEM_SLOTS;
+	
+	/**
+	 * The number of steps between adjustments of the window to the budget
+	 */
+	private static final int ADJUST_INTERVAL = 100;
+	
+	/**
+	 * Rough sizes in bytes of the parts of the memory, used to estimate 
+	 * the bytes held: each hot slice and firing within it, each cold 
+	 * slice and firing within it, and each index and indexed time.
+	 */
+	private static final int HOT_SLICE_BYTES = 96, HOT_FIRING_BYTES = 40, 
+		COLD_SLICE_BYTES = 24, COLD_FIRING_BYTES = 4, 
+		INDEX_BYTES = 72, INDEXED_TIME_BYTES = 4;
 
 	/**
 	 * The main memory which remembers which neurons
@@ -31,12 +68,28 @@ public class Memory implements Serializable {
 	private WrappedList<Hashtable<Neuron,Boolean>> memory = 
 		new WrappedList<Hashtable<Neuron,Boolean>>();
 	
+	/**
+	 * Slices which have aged out of the main memory
+	 */
+	private ColdMemory cold = new ColdMemory();
+	
+	/**
+	 * The current lengths of the main and cold memory. These are not 
+	 * serialized, as the budget which sized them is not.
+	 */
+	private transient int maxActiveSlots = MAX_ACTIVE_MEM_SLOTS, maxColdSlots = MAX_COLD_MEM_SLOTS;
+	
+	/**
+	 * Sizes the memory to a budget of bytes, if one has been set
+	 */
+	private transient MemoryBudget budget = null;
+	
 	/**
 	 * Serves to index the time at which each 
 	 * neuron fired.
 	 */
-	private Hashtable<Neuron,WrappedList<Integer>> mem_index =
-		new Hashtable<Neuron,WrappedList<Integer>>();
+	private Hashtable<Neuron,FiringList> mem_index =
+		new Hashtable<Neuron,FiringList>();
 	
 	/**
 	 * Allows access to time information
@@ -48,6 +101,16 @@ public class Memory implements Serializable {
 	 */
 	private int activeMemSlots = 0;
 	
+	/**
+	 * The number of firings held in the slices of the main memory
+	 */
+	private transient int hotFirings = 0;
+	
+	/**
+	 * The number of times held in the index of all neurons
+	 */
+	private transient long indexedTimes = 0;
+	
 	PatternMatcher patternMatcher;
 	
 	
@@ -89,7 +152,7 @@ public class Memory implements Serializable {
 	 * Returns the list of all times within memory the specified
 	 * neuron has fired.
 	 */
-	public WrappedList<Integer> getNeuronFirings (Neuron n) {
+	public FiringList getNeuronFirings (Neuron n) {
 		return mem_index.containsKey(n) ? mem_index.get(n) : null;
 	}
 	
@@ -102,6 +165,7 @@ public class Memory implements Serializable {
 			memory.add(null);
 		else {
 			memory.add(firings);
+			hotFirings += firings.size();
 			indexFirings(firings);
 			reportFilledSlice();
 		}
@@ -112,6 +176,9 @@ public class Memory implements Serializable {
 	}
 	
 	public void endStep () {
+		if (budget != null && timeKeeper.getTime() % ADJUST_INTERVAL == 0)
+			adjustWindow();
+		
 		Hashtable<Neuron,Boolean> latestSlice = getFirings(timeKeeper.getTime());
 		
 		if (latestSlice == null || latestSlice.isEmpty())
@@ -126,6 +193,12 @@ public class Memory implements Serializable {
 	 * NOTE: it will not index this firing!
 	 */
 	public void addFiring (Neuron n, int desiredTime, boolean isPermanent) {
+		if (!inRange(desiredTime)) {
+			if (isPermanent && remembered(desiredTime))
+				cold.add(n, desiredTime);
+			return;
+		}
+		
 		Hashtable<Neuron,Boolean> slice = getFirings(desiredTime);
 		
 		if (slice == null) {
@@ -147,6 +220,8 @@ public class Memory implements Serializable {
 				patternMatcher.decrementNonPermCount(desiredTime);
 		}
 		
+		if (!slice.containsKey(n))
+			hotFirings++;
 		slice.put(n, isPermanent);
 		setFirings(desiredTime, slice);	
 	}
@@ -183,13 +258,20 @@ public class Memory implements Serializable {
 	 * Updates the mem_index to account for neuron n firing this turn.
 	 */
 	private void indexFirings (Neuron n) {
-		if (mem_index.containsKey(n)) {
-			mem_index.get(n).add(timeKeeper.getTime());
-		} else {
-			WrappedList<Integer> list = new WrappedList<Integer>();
-			list.add(timeKeeper.getTime());
+		indexFiring(n, timeKeeper.getTime());
+	}
+	
+	/**
+	 * Adds the given time to the index of neuron n.
+	 */
+	public void indexFiring (Neuron n, int time) {
+		FiringList list = mem_index.get(n);
+		if (list == null) {
+			list = new FiringList();
 			mem_index.put(n, list);
 		}
+		list.add(time);
+		indexedTimes++;
 	}
 	
 	private void setFirings (int absoluteTime, Hashtable<Neuron,Boolean> newFirings) {
@@ -198,7 +280,8 @@ public class Memory implements Serializable {
 	}
 	
 	/**
-	 * Removes the oldest time-slice.
+	 * Moves the oldest time-slice to the cold memory, forgetting the 
+	 * oldest cold slice if the cold memory is full.
 	 */
 	public void removeFirings () {
 		Hashtable<Neuron,Boolean> removed = null;
@@ -206,22 +289,118 @@ public class Memory implements Serializable {
 		while (removed == null)
 			removed = memory.remove();
 		
+		int removedTime = timeKeeper.getTime() - memory.size();
+		hotFirings -= removed.size();
 		reportEmptiedSlice();
-		removeForgottenFiringIndexes(removed);
-		patternMatcher.removeNonPermCount(timeKeeper.getTime() - memory.size());
+		demote(removedTime, removed);
+		patternMatcher.removeNonPermCount(removedTime);
 	}
 	
 	/**
-	 * Called at the end of a time-slice to remove all
-	 * neuron firings which have in effect fell off
-	 * the end of our memory.
+	 * Adds the permanent firings of a slice leaving the main memory to 
+	 * the cold memory. Non-permanent firings are left to be upgraded 
+	 * or removed by the memory manager in time.
 	 */
-	private void removeForgottenFiringIndexes (Hashtable<Neuron,Boolean> old) {
-		Enumeration<Neuron> keys = old.keys();
+	private void demote (int time, Hashtable<Neuron,Boolean> slice) {
+		Neuron[] neurons = new Neuron[slice.size()];
+		int kept = 0;
+		Enumeration<Neuron> keys = slice.keys();
 		while (keys.hasMoreElements()) {
 			Neuron n = keys.nextElement();
-			removeForgottenFiringIndexes(n);
+			if (permanent(n, slice))
+				neurons[kept++] = n;
 		}
+		cold.addSlice(time, Arrays.copyOf(neurons, kept));
+		
+		while (cold.getActive() > maxColdSlots)
+			removeForgottenFiringIndexes(cold.removeSlice());
+	}
+	
+	/**
+	 * Sizes the memory to keep to a budget of bytes, or back to its 
+	 * fixed length if bytes is not positive.
+	 */
+	public void setBudget (long bytes) {
+		if (budget != null)
+			budget.close();
+		budget = bytes > 0 ? new MemoryBudget(bytes) : null;
+		
+		if (budget == null)
+			setWindow(MAX_ACTIVE_MEM_SLOTS + MAX_COLD_MEM_SLOTS);
+		else
+			adjustWindow();
+	}
+	
+	public MemoryBudget getBudget () {
+		return budget;
+	}
+	
+	/**
+	 * Asks the budget how many slices the memory should hold, and 
+	 * resizes the memory accordingly.
+	 */
+	private void adjustWindow () {
+		int slices = activeMemSlots + cold.getActive();
+		long fixed = (long) mem_index.size() * INDEX_BYTES;
+		setWindow(budget.adjust(estimateBytes() - fixed, fixed, slices, getWindow()));
+	}
+	
+	/**
+	 * Resizes the memory to hold the given number of active slices. The 
+	 * main memory is filled first and the cold memory holds the rest. 
+	 * Slices beyond the new lengths are demoted or forgotten at once.
+	 */
+	private void setWindow (int slots) {
+		maxActiveSlots = Math.min(MAX_ACTIVE_MEM_SLOTS, slots);
+		maxColdSlots = slots - maxActiveSlots;
+		
+		while (activeMemSlots > maxActiveSlots)
+			removeFirings();
+		while (cold.getActive() > maxColdSlots)
+			removeForgottenFiringIndexes(cold.removeSlice());
+	}
+	
+	/**
+	 * Returns the number of active slices the memory may hold
+	 */
+	public int getWindow () {
+		return maxActiveSlots + maxColdSlots;
+	}
+	
+	/**
+	 * Estimates the bytes held by the slices of the main and cold 
+	 * memory and by the index of firing times.
+	 */
+	public long estimateBytes () {
+		return estimateSliceBytes() + estimateIndexBytes();
+	}
+	
+	private long estimateSliceBytes () {
+		return (long) activeMemSlots * HOT_SLICE_BYTES + (long) hotFirings * HOT_FIRING_BYTES
+			+ (long) cold.getSize() * COLD_SLICE_BYTES + (long) cold.getFirings() * COLD_FIRING_BYTES;
+	}
+	
+	private long estimateIndexBytes () {
+		return (long) mem_index.size() * INDEX_BYTES + indexedTimes * INDEXED_TIME_BYTES;
+	}
+	
+	/**
+	 * Adds the estimated bytes held by the slices and by the index 
+	 * to the footprint.
+	 */
+	public void measure (Footprint footprint) {
+		footprint.add(Footprint.SLICES, estimateSliceBytes());
+		footprint.add(Footprint.INDEX, estimateIndexBytes());
+	}
+	
+	/**
+	 * Called when a cold slice is forgotten to remove all
+	 * neuron firings which have in effect fell off
+	 * the end of our memory.
+	 */
+	private void removeForgottenFiringIndexes (Neuron[] old) {
+		for (Neuron n : old)
+			removeForgottenFiringIndexes(n);
 	}
 	
 	/**
@@ -229,9 +408,13 @@ public class Memory implements Serializable {
 	 * the ones that are older than our memory length
 	 */
 	private void removeForgottenFiringIndexes (Neuron n) {
-		WrappedList<Integer> firings = mem_index.get(n);
-		while (!firings.isEmpty() && !inRange(firings.get(0)))
+		FiringList firings = mem_index.get(n);
+		if (firings == null)
+			return;
+		while (!firings.isEmpty() && !remembered(firings.getTime(0))) {
 			firings.remove();
+			indexedTimes--;
+		}
 	}
 	
 	/**
@@ -240,10 +423,11 @@ public class Memory implements Serializable {
 	public void remove (Neuron n) {
 		if (!mem_index.containsKey(n))
 			return;
-		WrappedList<Integer> firings = mem_index.get(n);
+		FiringList firings = mem_index.get(n);
+		indexedTimes -= firings.size();
 		while (!firings.isEmpty()) {
 			int firingTime = firings.remove();
-			if (inRange(firingTime))
+			if (remembered(firingTime))
 				removeFiring(n, firingTime);
 		}
 		mem_index.remove(n);
@@ -253,6 +437,11 @@ public class Memory implements Serializable {
 	 * Removes the firing of the given neuron at the specified time.
 	 */
 	public void removeFiring (Neuron n, int time) {		
+		if (!inRange(time)) {
+			cold.remove(n, time);
+			return;
+		}
+		
 		Hashtable<Neuron,Boolean> slice = getFirings(time);
 		if (slice == null || !slice.containsKey(n))
 			return;
@@ -261,12 +450,25 @@ public class Memory implements Serializable {
 			patternMatcher.decrementNonPermCount(time);
 			
 		slice.remove(n);
+		hotFirings--;
 		if (slice.isEmpty()) {
 			memory.set(translateTime(time), null);
 			reportEmptiedSlice();
 		}
 	}
 	
+	/**
+	 * Returns true if neuron n is remembered firing at the given time, 
+	 * in either the main or the cold memory.
+	 */
+	public boolean fired (Neuron n, int time) {
+		if (inRange(time)) {
+			Hashtable<Neuron,Boolean> slice = getFirings(time);
+			return slice != null && slice.containsKey(n);
+		}
+		return cold.contains(n, time);
+	}
+	
 	public int getSize () {
 		return memory.size();
 	}
@@ -276,7 +478,7 @@ public class Memory implements Serializable {
 	 * active slots.
 	 */
 	public boolean full () {
-		return activeMemSlots >= MAX_ACTIVE_MEM_SLOTS;
+		return activeMemSlots >= maxActiveSlots;
 	}
 	
 	/**
@@ -314,7 +516,7 @@ public class Memory implements Serializable {
 				Neuron n = e.nextElement();
 				if (!permanent(n, slice))
 					continue;
-				WrappedList<Integer> firings = getNeuronFirings(n);
+				FiringList firings = getNeuronFirings(n);
 				assert (firings.indexOf(currTime) >= 0);
 			}
 		}
@@ -323,14 +525,18 @@ public class Memory implements Serializable {
 		Enumeration<Neuron> indexedNeurons = mem_index.keys();
 		while (indexedNeurons.hasMoreElements()) {
 			Neuron n = indexedNeurons.nextElement();
-			WrappedList<Integer> firings = getNeuronFirings(n);
+			FiringList firings = getNeuronFirings(n);
 			int lastFiringTime = -1;
 			for (int i = 0; i < firings.size(); i++) {
-				int firingTime = firings.get(i);
+				int firingTime = firings.getTime(i);
 				assert firingTime != lastFiringTime;
 				
-				Hashtable<Neuron,Boolean> slice = getFirings(firingTime);
-				assert slice.containsKey(n) && permanent(n,slice);
+				if (inRange(firingTime)) {
+					Hashtable<Neuron,Boolean> slice = getFirings(firingTime);
+					assert slice.containsKey(n) && permanent(n,slice);
+				} else {
+					assert cold.contains(n, firingTime);
+				}
 				lastFiringTime = firingTime;
 			}
 		}
@@ -366,12 +572,231 @@ public class Memory implements Serializable {
 		return true;
 	}
 	
+	/**
+	 * Returns the earliest time held by the main memory
+	 */
+	public int getOldestTime () {
+		return Math.max(0, timeKeeper.getTime() - memory.size() + 1);
+	}
+	
+	/**
+	 * Returns the slices of the main memory from time from to time to, 
+	 * oldest first. Times outside the main memory are skipped. Each 
+	 * slice is copied as it is reached, so the iterator must be used 
+	 * between steps.
+	 */
+	public Iterator<MemorySlice> getSlices (final int from, final int to) {
+		return new Iterator<MemorySlice>() {
+			int time = Math.max(from, getOldestTime());
+			
+			public boolean hasNext () {
+				return time <= to && inRange(time);
+			}
+			
+			public MemorySlice next () {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				Hashtable<Neuron,Boolean> step = getFirings(time);
+				int size = step == null ? 0 : step.size();
+				long[] ids = new long[size];
+				boolean[] permanent = new boolean[size];
+				if (step != null) {
+					int i = 0;
+					for (Map.Entry<Neuron,Boolean> e : step.entrySet()) {
+						ids[i] = e.getKey().getId();
+						permanent[i] = e.getValue();
+						i++;
+					}
+				}
+				return new MemorySlice(time++, ids, permanent);
+			}
+			
+			public void remove () {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	/**
+	 * Checks if a given time is within the range of either the main 
+	 * or the cold memory.
+	 */
+	public boolean remembered (int desiredTime) {
+		if (inRange(desiredTime))
+			return true;
+		return desiredTime >= cold.getOldestTime() && desiredTime <= timeKeeper.getTime();
+	}
+	
+	/**
+	 * Gives neuron n an empty index if it has none. A neuron must be 
+	 * indexed before its limbo firings can be upgraded.
+	 */
+	public void ensureIndexed (Neuron n) {
+		if (!mem_index.containsKey(n))
+			mem_index.put(n, new FiringList());
+	}
+	
 	/**
 	 * Sets the index for a given neuron. This method is used 
 	 * by the Pattern Matcher and thus was not scoped as public.
 	 */
-	void setNeuronIndex (Neuron n, WrappedList<Integer> index) {
-		mem_index.put(n, index);
+	void setNeuronIndex (Neuron n, FiringList index) {
+		FiringList old = mem_index.put(n, index);
+		indexedTimes += index.size() - (old == null ? 0 : old.size());
+	}
+	
+	/**
+	 * Writes the memory window, the cold memory and the index of neuron 
+	 * firings to a snapshot. Neurons are referred to by id.
+	 */
+	public void writeSnapshot (SnapshotWriter out) throws IOException {
+		out.beginSection(Snapshot.MEMORY);
+		out.putInt(activeMemSlots);
+		out.putInt(memory.size());
+		for (int i = 0; i < memory.size(); i++) {
+			Hashtable<Neuron,Boolean> slice = memory.get(i);
+			out.putInt(slice == null ? -1 : slice.size());
+		}
+		for (int i = 0; i < memory.size(); i++) {
+			Hashtable<Neuron,Boolean> slice = memory.get(i);
+			if (slice == null)
+				continue;
+			Enumeration<Neuron> keys = slice.keys();
+			while (keys.hasMoreElements()) {
+				Neuron n = keys.nextElement();
+				out.putLong(n.getId());
+				out.putBoolean(permanent(n, slice));
+			}
+		}
+		out.endSection();
+		
+		out.beginSection(Snapshot.COLD_MEMORY);
+		out.putInt(cold.getSize());
+		for (int i = 0; i < cold.getSize(); i++)
+			out.putInt(cold.getTime(i));
+		for (int i = 0; i < cold.getSize(); i++)
+			out.putInt(cold.getSlice(i).length);
+		for (int i = 0; i < cold.getSize(); i++)
+			for (Neuron n : cold.getSlice(i))
+				out.putLong(n.getId());
+		out.endSection();
+		
+		out.beginSection(Snapshot.POSTINGS);
+		out.putInt(mem_index.size());
+		Enumeration<Neuron> indexed = mem_index.keys();
+		while (indexed.hasMoreElements()) {
+			Neuron n = indexed.nextElement();
+			FiringList firings = mem_index.get(n);
+			out.putLong(n.getId());
+			out.putInt(firings.size());
+			for (int i = 0; i < firings.size(); i++)
+				out.putInt(firings.getTime(i));
+		}
+		out.endSection();
+	}
+	
+	/**
+	 * Restores memory written by writeSnapshot, finding each neuron
+	 * in the given hierarchy. The memory must be newly constructed.
+	 */
+	public void readSnapshot (SnapshotReader in, NeuronHierarchy hier) throws IOException {
+		readSlices(in, hier);
+		readPostings(in, hier);
+	}
+	
+	/**
+	 * Restores the slices of the memory window and the cold memory 
+	 * from a snapshot.
+	 */
+	public void readSlices (SnapshotReader in, NeuronHierarchy hier) throws IOException {
+		in.openSection(Snapshot.MEMORY);
+		activeMemSlots = in.getInt();
+		int[] sliceSizes = in.getInts(in.getInt());
+		for (int size : sliceSizes) {
+			if (size < 0) {
+				memory.add(null);
+				continue;
+			}
+			Hashtable<Neuron,Boolean> slice = new Hashtable<Neuron,Boolean>();
+			for (int i = 0; i < size; i++) {
+				Neuron n = hier.getNeuronByID(in.getLong());
+				boolean isPermanent = in.getBoolean();
+				if (n != null)
+					slice.put(n, isPermanent);
+			}
+			hotFirings += slice.size();
+			memory.add(slice);
+		}
+		
+		// Snapshots taken before the cold memory have none
+		if (!in.hasSection(Snapshot.COLD_MEMORY))
+			return;
+		in.openSection(Snapshot.COLD_MEMORY);
+		int slices = in.getInt();
+		int[] times = in.getInts(slices);
+		int[] coldSizes = in.getInts(slices);
+		for (int i = 0; i < slices; i++) {
+			Neuron[] neurons = new Neuron[coldSizes[i]];
+			int kept = 0;
+			for (int j = 0; j < coldSizes[i]; j++) {
+				Neuron n = hier.getNeuronByID(in.getLong());
+				if (n != null)
+					neurons[kept++] = n;
+			}
+			cold.addSlice(times[i], Arrays.copyOf(neurons, kept));
+		}
+	}
+	
+	/**
+	 * Restores the firing times indexed for each neuron from a snapshot.
+	 */
+	public void readPostings (SnapshotReader in, NeuronHierarchy hier) throws IOException {
+		in.openSection(Snapshot.POSTINGS);
+		int indexed = in.getInt();
+		for (int i = 0; i < indexed; i++) {
+			Neuron n = hier.getNeuronByID(in.getLong());
+			int size = in.getInt();
+			FiringList firings = new FiringList(size);
+			for (int j = 0; j < size; j++)
+				firings.add(in.getInt());
+			if (n != null) {
+				mem_index.put(n, firings);
+				indexedTimes += size;
+			}
+		}
+	}
+	
+	/**
+	 * Memories saved before the cold memory kept the firing index as 
+	 * lists of boxed times, which are converted here. The counts of 
+	 * firings held are not serialized and are counted again. Without a 
+	 * budget the memory keeps to its fixed length.
+	 */
+	@SuppressWarnings("unchecked")
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (cold == null)
+			cold = new ColdMemory();
+		
+		indexedTimes = 0;
+		Hashtable<Neuron,Object> index = (Hashtable<Neuron,Object>) (Hashtable<Neuron,?>) mem_index;
+		Enumeration<Neuron> keys = index.keys();
+		while (keys.hasMoreElements()) {
+			Neuron n = keys.nextElement();
+			Object firings = index.get(n);
+			if (!(firings instanceof FiringList))
+				index.put(n, new FiringList((List<Integer>) firings));
+			indexedTimes += mem_index.get(n).size();
+		}
+		
+		hotFirings = 0;
+		for (int i = 0; i < memory.size(); i++)
+			if (memory.get(i) != null)
+				hotFirings += memory.get(i).size();
+		
+		// The relay forgets any slices beyond these once it is read
+		maxActiveSlots = MAX_ACTIVE_MEM_SLOTS;
+		maxColdSlots = MAX_COLD_MEM_SLOTS;
 	}
 	
 	public String toString () {
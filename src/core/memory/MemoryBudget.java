@@ -0,0 +1,119 @@
+package core.memory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * Sizes the memory window to keep the memory within a budget of bytes.
+ * Every so often the memory estimates the bytes it holds and asks the
+ * budget how many slices it should keep. A sense firing few neurons
+ * per step is thus given a long window, while a wide sense is given a
+ * short one rather than running out of heap.
+ *
+ * The budget also listens to the platform memory bean. Should a heap
+ * pool still be more than PRESSURE_THRESHOLD full after a collection,
+ * the next adjustment cuts the window to half the slices held, whatever
+ * the estimate.
+ */
+public class MemoryBudget implements NotificationListener {
+	/**
+	 * The fewest slices the window may shrink to
+	 */
+	public static final int MIN_SLOTS = 100;
+
+	/**
+	 * The most slices the window may grow to
+	 */
+	public static final int MAX_SLOTS = 1000000;
+
+	/**
+	 * The fraction of a heap pool which counts as pressure once it is
+	 * still in use after a collection
+	 */
+	public static final double PRESSURE_THRESHOLD = 0.85;
+
+	private final long budget;
+
+	private volatile boolean pressure = false;
+
+	private final NotificationEmitter emitter;
+	
+	/**
+	 * The pools whose thresholds were set by this budget
+	 */
+	private final ArrayList<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+
+
+	//<><(8)><>//
+
+
+	public MemoryBudget (long bytes) {
+		budget = bytes;
+
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported())
+				continue;
+			MemoryUsage usage = pool.getCollectionUsage();
+			// Leave alone any threshold set by someone else
+			if (usage == null || usage.getMax() <= 0 || pool.getCollectionUsageThreshold() > 0)
+				continue;
+			pool.setCollectionUsageThreshold((long) (usage.getMax() * PRESSURE_THRESHOLD));
+			pools.add(pool);
+		}
+
+		emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+		emitter.addNotificationListener(this, null, null);
+	}
+
+	public void handleNotification (Notification n, Object handback) {
+		if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(n.getType()))
+			pressure = true;
+	}
+
+	/**
+	 * Returns the number of slices the window should hold, given the
+	 * estimated bytes held by its slices, the bytes held by the memory
+	 * whatever its length, the number of slices and the current size of
+	 * the window. The window at most doubles at each adjustment, as the
+	 * slices it is sized on may not be typical of those to come.
+	 */
+	public int adjust (long sliceBytes, long fixedBytes, int slices, int window) {
+		long perSlice = Math.max(1, sliceBytes / Math.max(1, slices));
+		long target = Math.min(Math.max(0, budget - fixedBytes) / perSlice, 2L * window);
+
+		if (pressure) {
+			pressure = false;
+			target = Math.min(target, slices / 2);
+		}
+
+		return (int) Math.max(MIN_SLOTS, Math.min(MAX_SLOTS, target));
+	}
+
+	public long getBudget () {
+		return budget;
+	}
+
+	/**
+	 * Stops listening to the memory bean, and clears the thresholds set
+	 * by this budget.
+	 */
+	public void close () {
+		for (MemoryPoolMXBean pool : pools)
+			pool.setCollectionUsageThreshold(0);
+		pools.clear();
+		try {
+			emitter.removeNotificationListener(this);
+		} catch (ListenerNotFoundException e) {
+			// Already removed
+		}
+	}
+}
@@ -2,18 +2,31 @@ package core.memory;
 
 import haus.util.WrappedList;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.Arrays;
 
+import core.Footprint;
 import core.Neuron;
+import core.NeuronHierarchy;
 import core.TimeKeeper;
+import core.snapshot.Snapshot;
+import core.snapshot.SnapshotReader;
+import core.snapshot.SnapshotWriter;
 
 /**
  * The MemoryManager is responsible for manipulating the Memory.
  */
 public class MemoryManager implements Serializable {
 	private static final long serialVersionUID = -3803249481451780923L;
+	
+	/**
+	 * Rough sizes in bytes of each step of the limbo queue, each list of
+	 * limbo neurons and each neuron within them
+	 */
+	private static final int TTL_STEP_BYTES = 4, TTL_SLICE_BYTES = 40, TTL_NEURON_BYTES = 4;
 
 	/**
 	 * The memory unit being managed
@@ -28,6 +41,12 @@ public class MemoryManager implements Serializable {
 	
 	TTLManager limboNeuronTTL = new TTLManager();
 	
+	/**
+	 * Receive every firing remembered. This is replaced rather than 
+	 * changed so that it may be read while listeners are added.
+	 */
+	private transient FiringListener[] listeners = null;
+	
 	
 	//<><(8)><>//
 	
@@ -38,6 +57,11 @@ public class MemoryManager implements Serializable {
 		private WrappedList<ArrayList<Neuron>> limboNeuronTTL = 
 			new WrappedList<ArrayList<Neuron>>();
 		
+		/**
+		 * The number of lists in the queue and of neurons within them
+		 */
+		private transient int slices = 0, neurons = 0;
+		
 		/**
 		 * Adds the firing of neuron n at the future time delay
 		 */
@@ -49,9 +73,11 @@ public class MemoryManager implements Serializable {
 				slice = new ArrayList<Neuron>();
 				slice.add(n);
 				limboNeuronTTL.set(delay, slice);
+				slices++;
 			} else {
 				slice.add(n);
 			}
+			neurons++;
 		}
 		
 		public void remove (Neuron n, int delay) {
@@ -63,14 +89,39 @@ public class MemoryManager implements Serializable {
 			if (ttlSlice == null) 
 				return;
 			
-			ttlSlice.remove(n);
+			if (ttlSlice.remove(n))
+				neurons--;
 		}
 		
 		/**
 		 * Removes the next slice of TTLs coming due
 		 */
 		public ArrayList<Neuron> remove () {
-			return limboNeuronTTL.remove();
+			ArrayList<Neuron> slice = limboNeuronTTL.remove();
+			if (slice != null) {
+				slices--;
+				neurons -= slice.size();
+			}
+			return slice;
+		}
+		
+		/**
+		 * Counts the lists and neurons of a queue which has been read
+		 */
+		void recount () {
+			slices = 0;
+			neurons = 0;
+			for (int i = 0; i < limboNeuronTTL.size(); i++) {
+				if (limboNeuronTTL.get(i) != null) {
+					slices++;
+					neurons += limboNeuronTTL.get(i).size();
+				}
+			}
+		}
+		
+		private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+			in.defaultReadObject();
+			recount();
 		}
 	}
 	
@@ -83,6 +134,24 @@ public class MemoryManager implements Serializable {
 		memory = _mem;
 	}
 	
+	public void addFiringListener (FiringListener l) {
+		if (listeners == null) {
+			listeners = new FiringListener[] {l};
+		} else {
+			FiringListener[] more = Arrays.copyOf(listeners, listeners.length + 1);
+			more[listeners.length] = l;
+			listeners = more;
+		}
+	}
+	
+	public void removeFiringListener (FiringListener l) {
+		if (listeners == null)
+			return;
+		ArrayList<FiringListener> rest = new ArrayList<FiringListener>(Arrays.asList(listeners));
+		rest.remove(l);
+		listeners = rest.isEmpty() ? null : rest.toArray(new FiringListener[rest.size()]);
+	}
+	
 	public void startStep () {
 		memory.startStep();
 	}
@@ -121,7 +190,7 @@ public class MemoryManager implements Serializable {
 			int firingTime = timeKeeper.getTime() - unexplained.getLongestParentDelay();
 			// upgrade to full status
 			memory.addFiring(unexplained, firingTime, true);
-			memory.getNeuronFirings(unexplained).add(firingTime);
+			memory.indexFiring(unexplained, firingTime);
 		}
 	}
 	
@@ -136,6 +205,10 @@ public class MemoryManager implements Serializable {
 		if (n.getHeight() < 0)
 			return;
 		
+		if (listeners != null)
+			for (FiringListener l : listeners)
+				l.fired(n, timeKeeper.getTime());
+		
 		if (n.topLevel())
 			memory.addFiring(n, timeKeeper.getTime(), true);
 		else {
@@ -167,4 +240,56 @@ public class MemoryManager implements Serializable {
 			memory.removeFiring(child, timeKeeper.getTime() - delay);
 		}
 	}
+	
+	/**
+	 * Writes the queue of limbo neurons to a snapshot.
+	 */
+	public void writeSnapshot (SnapshotWriter out) throws IOException {
+		WrappedList<ArrayList<Neuron>> ttl = limboNeuronTTL.limboNeuronTTL;
+		out.beginSection(Snapshot.LIMBO);
+		out.putInt(ttl.size());
+		for (int i = 0; i < ttl.size(); i++)
+			out.putInt(ttl.get(i) == null ? -1 : ttl.get(i).size());
+		for (int i = 0; i < ttl.size(); i++) {
+			if (ttl.get(i) == null)
+				continue;
+			for (Neuron n : ttl.get(i))
+				out.putLong(n.getId());
+		}
+		out.endSection();
+	}
+	
+	/**
+	 * Restores the queue of limbo neurons written by writeSnapshot, 
+	 * finding each neuron in the given hierarchy.
+	 */
+	public void readSnapshot (SnapshotReader in, NeuronHierarchy hier) throws IOException {
+		in.openSection(Snapshot.LIMBO);
+		int[] sliceSizes = in.getInts(in.getInt());
+		WrappedList<ArrayList<Neuron>> ttl = limboNeuronTTL.limboNeuronTTL;
+		for (int size : sliceSizes) {
+			if (size < 0) {
+				ttl.add(null);
+				continue;
+			}
+			ArrayList<Neuron> slice = new ArrayList<Neuron>(size);
+			for (int i = 0; i < size; i++) {
+				Neuron n = hier.getNeuronByID(in.getLong());
+				if (n != null)
+					slice.add(n);
+			}
+			ttl.add(slice);
+		}
+		limboNeuronTTL.recount();
+	}
+	
+	/**
+	 * Adds the estimated bytes held by the queue of limbo neurons to 
+	 * the footprint.
+	 */
+	public void measure (Footprint footprint) {
+		TTLManager ttl = limboNeuronTTL;
+		footprint.add(Footprint.LIMBO, (long) ttl.limboNeuronTTL.size() * TTL_STEP_BYTES
+				+ (long) ttl.slices * TTL_SLICE_BYTES + (long) ttl.neurons * TTL_NEURON_BYTES);
+	}
 }
@@ -0,0 +1,57 @@
+package core.memory;
+
+/**
+ * A copy of the neurons which fired at one time step of the memory, and
+ * whether each firing was permanent. Slices are copied as they are read
+ * so that they may be handed to other threads.
+ */
+public class MemorySlice {
+	private final int time;
+
+	private final long[] ids;
+
+	private final boolean[] permanent;
+
+
+	//<><(8)><>//
+
+
+	MemorySlice (int _time, long[] _ids, boolean[] _permanent) {
+		time = _time;
+		ids = _ids;
+		permanent = _permanent;
+	}
+
+	public int getTime () {
+		return time;
+	}
+
+	public int size () {
+		return ids.length;
+	}
+
+	/**
+	 * Returns the id of the ith neuron which fired
+	 */
+	public long getId (int i) {
+		return ids[i];
+	}
+
+	public boolean permanent (int i) {
+		return permanent[i];
+	}
+
+	/**
+	 * Lists the ids which fired, with those not yet permanent in brackets
+	 */
+	public String toString () {
+		StringBuilder sb = new StringBuilder("Timestep " + time + ": ");
+		for (int i = 0; i < ids.length; i++) {
+			if (permanent[i])
+				sb.append(ids[i] + " ");
+			else
+				sb.append("(" + ids[i] + ") ");
+		}
+		return sb.toString();
+	}
+}
@@ -1,8 +1,6 @@
 package core.memory;
 
-import haus.util.Lists;
-import haus.util.WrappedList;
-
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -10,11 +8,14 @@ import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.PriorityQueue;
 
+import core.Footprint;
 import core.Neuron;
 import core.NeuronHierarchy;
 import core.TimeKeeper;
+import core.snapshot.Snapshot;
+import core.snapshot.SnapshotReader;
+import core.snapshot.SnapshotWriter;
 
 /**
  * The Pattern Matcher is responsible for looking at patterns in the firings
@@ -29,6 +30,12 @@ public class PatternMatcher implements Serializable {
 	 * neuron can be created for it
 	 */
 	private static final int MIN_SUPPORT = 3;
+	
+	/**
+	 * Rough sizes in bytes of each non-permanent count and each slice
+	 * waiting to be examined
+	 */
+	private static final int COUNT_BYTES = 64, SLICE_BYTES = 40;
 
 	private Memory mem;
 	
@@ -44,6 +51,12 @@ public class PatternMatcher implements Serializable {
 	private LinkedList<Integer> slicesToExamine = new LinkedList<Integer>();
 	
 	private Hashtable<Integer,Integer> nonPermNeuronCounts = new Hashtable<Integer,Integer>();
+	
+	/**
+	 * Scratch buckets used to group the neurons of a slice by their height.
+	 * Index i holds the neurons of level i.
+	 */
+	private transient ArrayList<ArrayList<Neuron>> levelBuckets;
 
 	
 	
@@ -225,34 +238,33 @@ public class PatternMatcher implements Serializable {
 	/**
 	 * Automatically creates combinatorial neurons for two or more neurons firings
 	 * at the same time at the same level.
+	 * 
+	 * Neurons are grouped by dropping each into the bucket for its height. The 
+	 * buckets are reused between steps so that no allocation is needed.
 	 */
 	private void createLevelCombinatorial (Hashtable<Neuron,Boolean> snapshot) {
 		if (snapshot == null || snapshot.size() < 2)
 			return;
 		
-		PriorityQueue<Neuron> q = new PriorityQueue<Neuron>(snapshot.size(), new Neuron.LevelComparator());
+		if (levelBuckets == null)
+			levelBuckets = new ArrayList<ArrayList<Neuron>>();
+		while (levelBuckets.size() < hier.getHierarchy().size())
+			levelBuckets.add(new ArrayList<Neuron>());
 		
 		Enumeration<Neuron> e = snapshot.keys();
-		while (e.hasMoreElements()) 
-			q.add(e.nextElement());
-		
-		int level = 0;
-		ArrayList<Neuron> levelNeurons = new ArrayList<Neuron>();
-		while (!q.isEmpty()) {
-			Neuron n = q.remove();
-			if (n.getHeight() == level)
-				levelNeurons.add(n);
-			else {
-				if (levelNeurons.size() > 1)
-					createNewLevelNeuron(levelNeurons);
-				
-				levelNeurons.clear();
-				level = n.getHeight();
-			}
+		while (e.hasMoreElements()) {
+			Neuron n = e.nextElement();
+			levelBuckets.get(n.getHeight()).add(n);
 		}
 		
-		if (levelNeurons.size() > 1)
-			createNewLevelNeuron(levelNeurons);
+		// Buckets must all be filled before creation as creating new 
+		// neurons modifies the snapshot.
+		for (int level = 0; level < levelBuckets.size(); level++) {
+			ArrayList<Neuron> levelNeurons = levelBuckets.get(level);
+			if (levelNeurons.size() > 1)
+				createNewLevelNeuron(levelNeurons);
+			levelNeurons.clear();
+		}
 	}
 	
 	private void createNewLevelNeuron (ArrayList<Neuron> levelNeurons) {
@@ -260,6 +272,8 @@ public class PatternMatcher implements Serializable {
 		foundation = levelNeurons.toArray(foundation);
 		Integer[] delays = new Integer[foundation.length];
 		Arrays.fill(delays, 0);
+		if (hier.findNeuron(foundation, delays) != null)
+			return;
 		Neuron newN = new Neuron(foundation, delays, timeKeeper);
 		hier.addNeuron(newN);
 		ArrayList<Integer> firingTimes = new ArrayList<Integer>();
@@ -313,6 +327,8 @@ public class PatternMatcher implements Serializable {
 			out = freqSingles.toArray(out);
 			Integer[] delays = new Integer[out.length];
 			Arrays.fill(delays, 0);
+			if (hier.findNeuron(out, delays) != null)
+				return;
 			Neuron newN = new Neuron(out, delays, timeKeeper);
 			hier.addNeuron(newN);
 			
@@ -324,12 +340,13 @@ public class PatternMatcher implements Serializable {
 	 * Returns a list of all time steps at which all the
 	 * neurons in the provided list fired together.
 	 */
-	@SuppressWarnings("unchecked")
 	private List<Integer> getCombinatorialFiringList (List<Neuron> l) {
-		ArrayList combo = new ArrayList<ArrayList<Neuron>>();
-		for (Neuron n : l)
-			combo.add(mem.getNeuronFirings(n));
-		return (List) Lists.mergeSortedLists(combo);
+		FiringList combo = mem.getNeuronFirings(l.get(0));
+		for (int i = 1; i < l.size() && combo != null; i++) {
+			FiringList next = mem.getNeuronFirings(l.get(i));
+			combo = next == null ? null : FiringList.intersect(combo, next, 0);
+		}
+		return combo == null ? new FiringList() : combo;
 	}
 	
 	/**
@@ -368,8 +385,12 @@ public class PatternMatcher implements Serializable {
 						}
 					}
 					
-					Neuron newN = new Neuron(new Neuron[] {firstChild, secondChild},
-							new Integer[] {acceptedOffset,0}, timeKeeper);
+					Neuron[] foundation = new Neuron[] {firstChild, secondChild};
+					Integer[] delays = new Integer[] {acceptedOffset,0};
+					if (hier.findNeuron(foundation, delays) != null)
+						continue;
+					
+					Neuron newN = new Neuron(foundation, delays, timeKeeper);
 					hier.addNeuron(newN);
 					reIndexSequential(secondChild, firstChild, acceptedFirings, newN, acceptedOffset);
 					numCreated++;
@@ -382,15 +403,8 @@ public class PatternMatcher implements Serializable {
 	 * Returns a list of all time steps at which neuron 'first'
 	 * fired and then neuron 'second' fired.
 	 */
-	@SuppressWarnings("unchecked")
 	private List<Integer> getSequentialFiringList (Neuron second, Neuron first, int offset) {
-		List<Integer> l1 = mem.getNeuronFirings(second);
-		List<Integer> l2 = mem.getNeuronFirings(first);
-		WrappedList<Integer> l3 = new WrappedList<Integer>(l2.size());
-		for (int i = 0; i < l2.size(); i++)
-			l3.add(l2.get(i) + offset);
-		
-		return (List<Integer>) Lists.mergeSortedLists(l1,l3);
+		return FiringList.intersect(mem.getNeuronFirings(second), mem.getNeuronFirings(first), offset);
 	}
 	
 	/**
@@ -407,7 +421,7 @@ public class PatternMatcher implements Serializable {
 	 */
 	private void reIndexCombinatorial (List<Neuron> foundation, List<Integer> firings, 
 			Neuron newNeuron) {
-		WrappedList<Integer> newNeuronIndex = new WrappedList<Integer>();
+		FiringList newNeuronIndex = new FiringList();
 		for (Integer firingTime : firings) {
 			for (Neuron n : foundation)
 				mem.removeFiring(n, firingTime);
@@ -422,10 +436,10 @@ public class PatternMatcher implements Serializable {
 			firing_index.put(i, true);
 		
 		for (Neuron n : foundation) {
-			WrappedList<Integer> old = mem.getNeuronFirings(n);
-			WrappedList<Integer> wrap = new WrappedList<Integer>();
-			while (old.size() > 0) {
-				int i = old.remove();
+			FiringList old = mem.getNeuronFirings(n);
+			FiringList wrap = new FiringList();
+			for (int k = 0; k < old.size(); k++) {
+				int i = old.getTime(k);
 				if (!firing_index.containsKey(i))
 					wrap.add(i);
 			}
@@ -444,9 +458,9 @@ public class PatternMatcher implements Serializable {
 	 * Note that the list of firings indexes the newer firing neuron
 	 */
 	private void reIndexSequential (Neuron second, Neuron first, List<Integer> firings, Neuron newNeuron, int offset) {
-		WrappedList<Integer> newNeuronIndex = new WrappedList<Integer>();
+		FiringList newNeuronIndex = new FiringList();
 		for (Integer firingTime : firings) {
-			assert mem.getFirings(firingTime).containsKey(second);
+			assert mem.fired(second, firingTime);
 
 			mem.removeFiring(second, firingTime);
 			mem.addFiring(newNeuron, firingTime, true);
@@ -454,7 +468,7 @@ public class PatternMatcher implements Serializable {
 			newNeuronIndex.add(firingTime);
 			
 			boolean sameNeuron = first.equals(second);
-			assert sameNeuron || mem.getFirings(firingTime - offset).containsKey(first);
+			assert sameNeuron || mem.fired(first, firingTime - offset);
 			
 			mem.removeFiring(first, firingTime - offset);
 		}
@@ -468,10 +482,10 @@ public class PatternMatcher implements Serializable {
 			firing_index.put(i, true);
 		
 		// Replace all occurrences of first neuron
-		WrappedList<Integer> old = mem.getNeuronFirings(first);
-		WrappedList<Integer> wrap = new WrappedList<Integer>();
-		while (old.size() > 0) {
-			int i = old.remove();
+		FiringList old = mem.getNeuronFirings(first);
+		FiringList wrap = new FiringList();
+		for (int k = 0; k < old.size(); k++) {
+			int i = old.getTime(k);
 			if (!firing_index.containsKey(i + offset))
 				wrap.add(i);
 		}
@@ -479,15 +493,58 @@ public class PatternMatcher implements Serializable {
 		
 		// Replace all occurrences of second neuron
 		old = mem.getNeuronFirings(second);
-		wrap = new WrappedList<Integer>();
-		while (old.size() > 0) {
-			int i = old.remove();
+		wrap = new FiringList();
+		for (int k = 0; k < old.size(); k++) {
+			int i = old.getTime(k);
 			if (!firing_index.containsKey(i))
 				wrap.add(i);
 		}
 		mem.setNeuronIndex(second, wrap);
 	}
 	
+	/**
+	 * Writes the slices waiting to be examined and the non-permanent
+	 * counts of each slice to a snapshot.
+	 */
+	public void writeSnapshot (SnapshotWriter out) throws IOException {
+		out.beginSection(Snapshot.PATTERNS);
+		out.putInt(slicesToExamine.size());
+		for (int time : slicesToExamine)
+			out.putInt(time);
+		out.putInt(nonPermNeuronCounts.size());
+		Enumeration<Integer> times = nonPermNeuronCounts.keys();
+		while (times.hasMoreElements()) {
+			int time = times.nextElement();
+			out.putInt(time);
+			out.putInt(nonPermNeuronCounts.get(time));
+		}
+		out.endSection();
+	}
+	
+	/**
+	 * Adds the estimated bytes held by the non-permanent counts and the
+	 * slices waiting to be examined to the footprint.
+	 */
+	public void measure (Footprint footprint) {
+		footprint.add(Footprint.PATTERNS, (long) nonPermNeuronCounts.size() * COUNT_BYTES
+				+ (long) slicesToExamine.size() * SLICE_BYTES);
+	}
+	
+	/**
+	 * Restores the state written by writeSnapshot.
+	 */
+	public void readSnapshot (SnapshotReader in) throws IOException {
+		in.openSection(Snapshot.PATTERNS);
+		int[] slices = in.getInts(in.getInt());
+		for (int time : slices)
+			slicesToExamine.add(time);
+		int counts = in.getInt();
+		for (int i = 0; i < counts; i++) {
+			int time = in.getInt();
+			nonPermNeuronCounts.put(time, in.getInt());
+		}
+	}
+	
 	/**
 	 * Checks if a given neuron has occurred frequently enough
 	 * to be a candidate for new neuron creation.
@@ -0,0 +1,281 @@
+package core.snapshot;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import core.Neuron;
+import core.TimeKeeper;
+
+/**
+ * An append-only log of the structural changes made to a hierarchy
+ * since its last checkpoint snapshot. Replaying the log onto that
+ * snapshot recovers the hierarchy.
+ *
+ * The log begins with MAGIC, VERSION and the time of the checkpoint it
+ * follows. Each record is then a kind byte followed by its values:
+ *
+ * TIME: the time step of the records which follow
+ * ADD: id, child count, then the id and delay of each child
+ * KILL: id
+ * SCORES: count, then the id and score of each neuron
+ * CAP: a neuron cap has been found
+ */
+public class ChangeLog {
+	public static final int MAGIC = 0x49524C47; // "IRLG"
+
+	public static final int VERSION = 1;
+
+	public static final int END = -1, TIME = 1, ADD = 2, KILL = 3, SCORES = 4, CAP = 5;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private FileChannel channel;
+
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	private TimeKeeper timeKeeper;
+
+	/**
+	 * The time of the last TIME record written
+	 */
+	private int loggedTime;
+
+
+	//<><(8)><>//
+
+
+	/**
+	 * Starts a new log following a checkpoint taken at the current time.
+	 */
+	public ChangeLog (String filename, TimeKeeper _tk) throws IOException {
+		timeKeeper = _tk;
+		loggedTime = timeKeeper.getTime();
+		channel = new FileOutputStream(filename).getChannel();
+
+		ensure(12);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(loggedTime);
+		sync();
+	}
+
+	public void neuronAdded (Neuron n) {
+		ArrayList<Neuron> children = n.getChildren();
+		Integer[] delays = n.getDelays();
+
+		stamp();
+		ensure(1 + 8 + 4);
+		buffer.put((byte) ADD);
+		buffer.putLong(n.getId());
+		buffer.putInt(children.size());
+		for (int i = 0; i < children.size(); i++) {
+			assert children.get(i).getId() >= 0;
+			ensure(12);
+			buffer.putLong(children.get(i).getId());
+			buffer.putInt(delays[i]);
+		}
+	}
+
+	public void neuronKilled (Neuron n) {
+		stamp();
+		ensure(1 + 8);
+		buffer.put((byte) KILL);
+		buffer.putLong(n.getId());
+	}
+
+	/**
+	 * Records the score of every neuron in the hierarchy.
+	 */
+	public void scores (ArrayList<LinkedList<Neuron>> hierarchy) {
+		int count = 0;
+		for (LinkedList<Neuron> level : hierarchy)
+			count += level.size();
+
+		stamp();
+		ensure(1 + 4);
+		buffer.put((byte) SCORES);
+		buffer.putInt(count);
+		for (LinkedList<Neuron> level : hierarchy) {
+			for (Neuron n : level) {
+				ensure(12);
+				buffer.putLong(n.getId());
+				buffer.putInt(n.getScore());
+			}
+		}
+	}
+
+	public void capFound () {
+		stamp();
+		ensure(1);
+		buffer.put((byte) CAP);
+	}
+
+	/**
+	 * Writes a TIME record if time has moved on since the last one.
+	 */
+	private void stamp () {
+		int time = timeKeeper.getTime();
+		if (time == loggedTime)
+			return;
+		ensure(1 + 4);
+		buffer.put((byte) TIME);
+		buffer.putInt(time);
+		loggedTime = time;
+	}
+
+	/**
+	 * Hands all buffered records to the file. This is cheap and should
+	 * be done every step.
+	 */
+	public void flush () {
+		try {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write change log", e);
+		}
+	}
+
+	/**
+	 * Flushes the log and forces it onto the disk.
+	 */
+	public void sync () {
+		flush();
+		try {
+			channel.force(false);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write change log", e);
+		}
+	}
+
+	public void close () {
+		sync();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to close change log", e);
+		}
+	}
+
+	private void ensure (int bytes) {
+		if (buffer.remaining() < bytes)
+			flush();
+	}
+
+
+	/**
+	 * Reads the records of a change log in order. A record cut short
+	 * by a crash is treated as the end of the log.
+	 */
+	public static class Reader {
+		private DataInputStream in;
+
+		private int baseTime;
+
+		private int time;
+
+		private long id;
+
+		private long[] ids;
+
+		private int[] values;
+
+		public Reader (String filename) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+			if (in.readInt() != MAGIC)
+				throw new IOException(filename + " is not a change log");
+			if (in.readInt() > VERSION)
+				throw new IOException("Unsupported change log version");
+			baseTime = in.readInt();
+			time = baseTime;
+		}
+
+		/**
+		 * Reads the next record and returns its kind, or END if there
+		 * are no more complete records.
+		 */
+		public int next () throws IOException {
+			try {
+				int kind = in.read();
+				if (kind < 0)
+					return END;
+
+				if (kind == TIME) {
+					time = in.readInt();
+				} else if (kind == ADD) {
+					id = in.readLong();
+					readPairs(in.readInt());
+				} else if (kind == KILL) {
+					id = in.readLong();
+				} else if (kind == SCORES) {
+					readPairs(in.readInt());
+				} else if (kind != CAP) {
+					throw new IOException("Unknown change log record " + kind);
+				}
+				return kind;
+			} catch (EOFException e) {
+				return END;
+			}
+		}
+
+		private void readPairs (int count) throws IOException {
+			ids = new long[count];
+			values = new int[count];
+			for (int i = 0; i < count; i++) {
+				ids[i] = in.readLong();
+				values[i] = in.readInt();
+			}
+		}
+
+		/**
+		 * Returns the time of the checkpoint this log follows
+		 */
+		public int getBaseTime () {
+			return baseTime;
+		}
+
+		/**
+		 * Returns the time of the latest TIME record
+		 */
+		public int getTime () {
+			return time;
+		}
+
+		/**
+		 * Returns the neuron id of an ADD or KILL record
+		 */
+		public long getId () {
+			return id;
+		}
+
+		/**
+		 * Returns the child ids of an ADD record or the neuron ids
+		 * of a SCORES record
+		 */
+		public long[] getIds () {
+			return ids;
+		}
+
+		/**
+		 * Returns the child delays of an ADD record or the scores of
+		 * a SCORES record
+		 */
+		public int[] getValues () {
+			return values;
+		}
+
+		public void close () throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package core.snapshot;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Describes the binary snapshot format used to save a core.
+ *
+ * A snapshot begins with MAGIC and VERSION and is followed by a series
+ * of sections. Sections may be written in any order. Each section is
+ * split into blocks of at most BLOCK_SIZE bytes, and each block is
+ * compressed with a Deflater on its own, or stored as is if that is no
+ * smaller. Blocks may thus be compressed and decompressed in parallel.
+ *
+ * A footer at the end of the file lists the tag, first block, block
+ * count and length of each section, then the offset, length and stored
+ * length of each block. It closes with the number of sections, the
+ * number of blocks, the offset of the footer and MAGIC once more. All 
+ * values are big-endian.
+ *
+ * Version 1 snapshots were not compressed. Their footer lists the tag,
+ * offset and length of each section, then the number of sections, the
+ * offset of the footer and MAGIC.
+ */
+public class Snapshot {
+	public static final int MAGIC = 0x4952534E; // "IRSN"
+
+	public static final int VERSION = 2;
+
+	/**
+	 * The largest block, before compression
+	 */
+	static final int BLOCK_SIZE = 1 << 20;
+
+	/**
+	 * Length in bytes of the trailer which closes the footer
+	 */
+	static final int TRAILER_LENGTH = 4 + 4 + 8 + 4;
+
+	/**
+	 * Length in bytes of each section entry within the footer
+	 */
+	static final int ENTRY_LENGTH = 4 + 4 + 4 + 8;
+
+	/**
+	 * Length in bytes of each block entry within the footer
+	 */
+	static final int BLOCK_ENTRY_LENGTH = 8 + 4 + 4;
+
+	/**
+	 * Lengths of the trailer and section entries of version 1
+	 */
+	static final int V1_TRAILER_LENGTH = 4 + 8 + 4, V1_ENTRY_LENGTH = 4 + 8 + 8;
+
+
+	//<><(Section Tags)><>//
+
+
+	/**
+	 * Time, frozen state and sizes of the relay
+	 */
+	public static final int RELAY = 1;
+
+	/**
+	 * Counters, level sizes and neuron cap tracking of the hierarchy
+	 */
+	public static final int HIERARCHY = 2;
+
+	/**
+	 * Columns of id, height, score, firing times and dead flags
+	 * for every neuron, base neurons first
+	 */
+	public static final int NEURONS = 3;
+
+	/**
+	 * Children and delays of every neuron in compressed sparse row
+	 * form, followed by the pending firings of temporal neurons
+	 */
+	public static final int ADJACENCY = 4;
+
+	/**
+	 * The slices of the memory window
+	 */
+	public static final int MEMORY = 5;
+
+	/**
+	 * The firing times indexed by the memory for each neuron
+	 */
+	public static final int POSTINGS = 6;
+
+	/**
+	 * Slices waiting to be examined and non-permanent counts of the
+	 * pattern matcher
+	 */
+	public static final int PATTERNS = 7;
+
+	/**
+	 * The queue of limbo neurons held by the memory manager
+	 */
+	public static final int LIMBO = 8;
+
+	/**
+	 * The serialized sense
+	 */
+	public static final int SENSE = 9;
+
+	/**
+	 * A byte of flags for every neuron, in the same order as NEURONS,
+	 * so that neurons can be shown before their adjacency is read
+	 */
+	public static final int FLAGS = 10;
+
+	/**
+	 * The slices which have aged out of the memory window
+	 */
+	public static final int COLD_MEMORY = 11;
+	
+	/**
+	 * Flags of the FLAGS section
+	 */
+	public static final byte FLAG_TEMPORAL = 1, FLAG_PRIMED = 2;
+
+
+	/**
+	 * Snapshots taken while stepping carries on are written out one at
+	 * a time on this thread.
+	 */
+	private static final ExecutorService writer = Executors.newSingleThreadExecutor(
+			new ThreadFactory() {
+				public Thread newThread (Runnable r) {
+					Thread t = new Thread(r, "Snapshot Writer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	/**
+	 * Runs the given task on the snapshot writing thread. Tasks are run
+	 * in the order they are given.
+	 */
+	public static Future<Void> writeInBackground (Callable<Void> task) {
+		return writer.submit(task);
+	}
+
+	/**
+	 * The number of threads compressing and decompressing blocks
+	 */
+	static final int COMPRESSORS = Runtime.getRuntime().availableProcessors();
+
+	private static final ExecutorService compressors = Executors.newFixedThreadPool(COMPRESSORS,
+			new ThreadFactory() {
+				public Thread newThread (Runnable r) {
+					Thread t = new Thread(r, "Snapshot Compressor");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	/**
+	 * Compresses a block on the compressing threads. The block is given 
+	 * back as is if it does not compress.
+	 */
+	static Future<ByteBuffer> compress (final ByteBuffer block) {
+		return compressors.submit(new Callable<ByteBuffer>() {
+			public ByteBuffer call () {
+				Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+				try {
+					deflater.setInput(block.array(), block.arrayOffset() + block.position(), block.remaining());
+					deflater.finish();
+					
+					byte[] out = new byte[block.remaining()];
+					int length = deflater.deflate(out);
+					if (!deflater.finished() || length >= block.remaining())
+						return block;
+					return ByteBuffer.wrap(out, 0, length);
+				} finally {
+					deflater.end();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reads a block from the channel and decompresses it into out at
+	 * the given offset, on the compressing threads.
+	 */
+	static Future<Void> decompress (final FileChannel channel, final long offset, final int stored,
+			final byte[] out, final int outOffset, final int length) {
+		return compressors.submit(new Callable<Void>() {
+			public Void call () throws IOException {
+				ByteBuffer in = ByteBuffer.allocate(stored);
+				while (in.hasRemaining())
+					if (channel.read(in, offset + in.position()) < 0)
+						throw new IOException("Unexpected end of snapshot");
+				
+				if (stored == length) {
+					System.arraycopy(in.array(), 0, out, outOffset, length);
+					return null;
+				}
+				
+				Inflater inflater = new Inflater();
+				try {
+					inflater.setInput(in.array());
+					if (inflater.inflate(out, outOffset, length) != length || !inflater.finished())
+						throw new IOException("Snapshot block is corrupt");
+				} catch (DataFormatException e) {
+					throw new IOException("Snapshot block is corrupt", e);
+				} finally {
+					inflater.end();
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Returns true if the given file begins as a snapshot does.
+	 */
+	public static boolean isSnapshot (String filename) {
+		try {
+			RandomAccessFile file = new RandomAccessFile(filename, "r");
+			try {
+				return file.length() >= 8 && file.readInt() == MAGIC;
+			} finally {
+				file.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+}
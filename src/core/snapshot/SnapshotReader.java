@@ -0,0 +1,308 @@
+package core.snapshot;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a snapshot written by a SnapshotWriter. The footer is read
+ * upon opening. When a section is opened its blocks are decompressed
+ * in parallel, each into a buffer of its own, or a lone block stored as
+ * is is simply memory-mapped. Values are then read in order from the
+ * open section, across its blocks.
+ */
+public class SnapshotReader {
+	private RandomAccessFile file;
+
+	private FileChannel channel;
+
+	private int version;
+
+	/**
+	 * The first block, block count and length of each section by tag,
+	 * or the offset and length of each section of a version 1 snapshot
+	 */
+	private Hashtable<Integer,long[]> sections = new Hashtable<Integer,long[]>();
+
+	/**
+	 * The offset, length and stored length of each block
+	 */
+	private long[] blockOffsets;
+	private int[] blockLengths;
+	private int[] blockStored;
+
+	/**
+	 * The blocks of the section currently being read, and the block
+	 * being read from
+	 */
+	private ByteBuffer[] section;
+	private int current;
+
+
+	//<><(8)><>//
+
+
+	public SnapshotReader (String filename) throws IOException {
+		file = new RandomAccessFile(filename, "r");
+		channel = file.getChannel();
+		try {
+			readFooter(filename);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		} catch (RuntimeException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	private void readFooter (String filename) throws IOException {
+		long size = channel.size();
+		if (size < 8 + Snapshot.V1_TRAILER_LENGTH)
+			throw new IOException(filename + " is too short to be a snapshot");
+
+		ByteBuffer header = read(0, 8);
+		if (header.getInt() != Snapshot.MAGIC)
+			throw new IOException(filename + " is not a snapshot");
+		version = header.getInt();
+		if (version > Snapshot.VERSION)
+			throw new IOException("Unsupported snapshot version " + version);
+
+		if (version == 1) {
+			readFooterV1(filename, size);
+			return;
+		}
+
+		if (size < 8 + Snapshot.TRAILER_LENGTH)
+			throw new IOException(filename + " is too short to be a snapshot");
+		ByteBuffer trailer = read(size - Snapshot.TRAILER_LENGTH, Snapshot.TRAILER_LENGTH);
+		int count = trailer.getInt();
+		int blocks = trailer.getInt();
+		long footerStart = trailer.getLong();
+		if (trailer.getInt() != Snapshot.MAGIC)
+			throw new IOException(filename + " is truncated");
+
+		ByteBuffer footer = read(footerStart, count * Snapshot.ENTRY_LENGTH
+				+ blocks * Snapshot.BLOCK_ENTRY_LENGTH);
+		for (int i = 0; i < count; i++) {
+			int tag = footer.getInt();
+			long first = footer.getInt();
+			long blockCount = footer.getInt();
+			long length = footer.getLong();
+			sections.put(tag, new long[] {first, blockCount, length});
+		}
+
+		blockOffsets = new long[blocks];
+		blockLengths = new int[blocks];
+		blockStored = new int[blocks];
+		for (int i = 0; i < blocks; i++) {
+			blockOffsets[i] = footer.getLong();
+			blockLengths[i] = footer.getInt();
+			blockStored[i] = footer.getInt();
+		}
+	}
+
+	private void readFooterV1 (String filename, long size) throws IOException {
+		ByteBuffer trailer = read(size - Snapshot.V1_TRAILER_LENGTH, Snapshot.V1_TRAILER_LENGTH);
+		int count = trailer.getInt();
+		long footerStart = trailer.getLong();
+		if (trailer.getInt() != Snapshot.MAGIC)
+			throw new IOException(filename + " is truncated");
+
+		ByteBuffer footer = read(footerStart, count * Snapshot.V1_ENTRY_LENGTH);
+		for (int i = 0; i < count; i++) {
+			int tag = footer.getInt();
+			long offset = footer.getLong();
+			long length = footer.getLong();
+			sections.put(tag, new long[] {offset, length});
+		}
+	}
+
+	private ByteBuffer read (long offset, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		while (buf.hasRemaining())
+			if (channel.read(buf, offset + buf.position()) < 0)
+				throw new IOException("Unexpected end of snapshot");
+		buf.flip();
+		return buf;
+	}
+
+	public int getVersion () {
+		return version;
+	}
+
+	public boolean hasSection (int tag) {
+		return sections.containsKey(tag);
+	}
+
+	/**
+	 * Readies the section with the given tag so that its values may be read.
+	 */
+	public void openSection (int tag) throws IOException {
+		long[] entry = sections.get(tag);
+		if (entry == null)
+			throw new IOException("Snapshot is missing section " + tag);
+
+		current = 0;
+		if (version == 1) {
+			// Mapped a block at a time, as a section may be over 2GB
+			long offset = entry[0], length = entry[1];
+			section = new ByteBuffer[(int) Math.max(1, (length + Snapshot.BLOCK_SIZE - 1) / Snapshot.BLOCK_SIZE)];
+			for (int i = 0; i < section.length; i++) {
+				long start = (long) i * Snapshot.BLOCK_SIZE;
+				section[i] = map(offset + start, Math.min(Snapshot.BLOCK_SIZE, length - start));
+			}
+			return;
+		}
+
+		int first = (int) entry[0];
+		int count = (int) entry[1];
+		if (first < 0 || count < 0 || first + count > blockLengths.length)
+			throw new IOException("Snapshot section " + tag + " is corrupt");
+		long length = 0;
+		for (int b = first; b < first + count; b++) {
+			if (blockLengths[b] < 0 || blockLengths[b] > Snapshot.BLOCK_SIZE || blockStored[b] < 0)
+				throw new IOException("Snapshot section " + tag + " is corrupt");
+			length += blockLengths[b];
+		}
+		if (length != entry[2])
+			throw new IOException("Snapshot section " + tag + " is corrupt");
+
+		if (count == 1 && blockStored[first] == blockLengths[first]) {
+			section = new ByteBuffer[] {map(blockOffsets[first], blockLengths[first])};
+			return;
+		}
+
+		if (count == 0) {
+			section = new ByteBuffer[] {ByteBuffer.allocate(0)};
+			return;
+		}
+
+		section = new ByteBuffer[count];
+		ArrayList<Future<Void>> blocks = new ArrayList<Future<Void>>(count);
+		for (int i = 0; i < count; i++) {
+			int b = first + i;
+			byte[] out = new byte[blockLengths[b]];
+			blocks.add(Snapshot.decompress(channel, blockOffsets[b], blockStored[b],
+					out, 0, blockLengths[b]));
+			section[i] = ByteBuffer.wrap(out);
+		}
+
+		for (Future<Void> block : blocks) {
+			try {
+				block.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while reading snapshot", e);
+			} catch (ExecutionException e) {
+				throw new IOException("Unable to read snapshot section " + tag, e.getCause());
+			}
+		}
+	}
+
+	private MappedByteBuffer map (long offset, long length) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+	}
+
+	/**
+	 * Returns a buffer from which the next value of the given number of
+	 * bytes may be read. This is the block being read from, unless the
+	 * value runs across blocks, in which case it is gathered into a 
+	 * buffer of its own.
+	 */
+	private ByteBuffer next (int bytes) {
+		ByteBuffer block = section[current];
+		while (!block.hasRemaining() && current + 1 < section.length)
+			block = section[++current];
+		if (block.remaining() >= bytes)
+			return block;
+
+		ByteBuffer value = ByteBuffer.allocate(bytes);
+		while (value.hasRemaining()) {
+			while (!block.hasRemaining()) {
+				if (current + 1 == section.length)
+					throw new BufferUnderflowException();
+				block = section[++current];
+			}
+			value.put(block.get());
+		}
+		value.flip();
+		return value;
+	}
+
+	public byte getByte () {
+		return next(1).get();
+	}
+
+	public boolean getBoolean () {
+		return next(1).get() != 0;
+	}
+
+	public int getInt () {
+		return next(4).getInt();
+	}
+
+	public long getLong () {
+		return next(8).getLong();
+	}
+
+	/**
+	 * Reads the next len ints of the section.
+	 */
+	public int[] getInts (int len) {
+		int[] out = new int[len];
+		int done = 0;
+		while (done < len) {
+			ByteBuffer block = next(4);
+			int chunk = Math.min(len - done, block.remaining() / 4);
+			block.asIntBuffer().get(out, done, chunk);
+			block.position(block.position() + 4 * chunk);
+			done += chunk;
+		}
+		return out;
+	}
+
+	/**
+	 * Reads the next len longs of the section.
+	 */
+	public long[] getLongs (int len) {
+		long[] out = new long[len];
+		int done = 0;
+		while (done < len) {
+			ByteBuffer block = next(8);
+			int chunk = Math.min(len - done, block.remaining() / 8);
+			block.asLongBuffer().get(out, done, chunk);
+			block.position(block.position() + 8 * chunk);
+			done += chunk;
+		}
+		return out;
+	}
+
+	/**
+	 * Reads the next len bytes of the section.
+	 */
+	public byte[] getBytes (int len) {
+		byte[] out = new byte[len];
+		int done = 0;
+		while (done < len) {
+			ByteBuffer block = next(1);
+			int chunk = Math.min(len - done, block.remaining());
+			block.get(out, done, chunk);
+			done += chunk;
+		}
+		return out;
+	}
+
+	public void close () throws IOException {
+		section = null;
+		channel.close();
+		file.close();
+	}
+}
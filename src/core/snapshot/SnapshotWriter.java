@@ -0,0 +1,346 @@
+package core.snapshot;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a snapshot section by section. Values are gathered in blocks
+ * of up to Snapshot.BLOCK_SIZE bytes, each section starting a new block.
+ * Each block is compressed on its own by the compressing threads of
+ * Snapshot as soon as it fills, and the compressed blocks are written
+ * out in order.
+ *
+ * A writer may write to a file as it goes, or instead gather the whole
+ * snapshot in memory to be written to a file later and from any thread.
+ */
+public class SnapshotWriter {
+	/**
+	 * The most blocks a writer writing to a file lets wait for
+	 * compression before it waits for them in turn
+	 */
+	private static final int MAX_PENDING = 4 * Snapshot.COMPRESSORS;
+
+	/**
+	 * The file being written to, or null if writing to memory
+	 */
+	private FileChannel channel;
+
+	private ByteBuffer buffer = ByteBuffer.allocate(Snapshot.BLOCK_SIZE);
+
+	/**
+	 * Blocks handed off for compression which have not yet been written
+	 * out, or gathered into blocks when writing to memory
+	 */
+	private LinkedList<Future<ByteBuffer>> pending = new LinkedList<Future<ByteBuffer>>();
+
+	/**
+	 * The compressed blocks of a writer writing to memory
+	 */
+	private ArrayList<ByteBuffer> blocks;
+
+	/**
+	 * The raw and stored length of every block. The stored length is
+	 * only known once the block has been compressed.
+	 */
+	private ArrayList<int[]> blockLengths = new ArrayList<int[]>();
+
+	/**
+	 * Number of blocks whose compression has been waited for
+	 */
+	private int resolved = 0;
+
+	/**
+	 * The footer, once the snapshot is finished
+	 */
+	private ByteBuffer footer;
+
+	private boolean closed = false;
+
+	/**
+	 * Number of bytes put so far, before compression
+	 */
+	private long position = 0;
+
+	private int sectionTag = -1;
+
+	private long sectionStart;
+
+	private int sectionFirstBlock;
+
+	/**
+	 * Tag, first block, block count and length of each finished section
+	 */
+	private ArrayList<long[]> sections = new ArrayList<long[]>();
+
+
+	//<><(8)><>//
+
+
+	public SnapshotWriter (String filename) throws IOException {
+		channel = new FileOutputStream(filename).getChannel();
+		write(header());
+	}
+
+	/**
+	 * Creates a writer which gathers the snapshot in memory. Once
+	 * closed, the snapshot can be written out by writeTo.
+	 */
+	public SnapshotWriter () {
+		blocks = new ArrayList<ByteBuffer>();
+	}
+
+	private static ByteBuffer header () {
+		ByteBuffer header = ByteBuffer.allocate(8);
+		header.putInt(Snapshot.MAGIC);
+		header.putInt(Snapshot.VERSION);
+		header.flip();
+		return header;
+	}
+
+	/**
+	 * Starts a new section. All values put until endSection is called
+	 * belong to this section.
+	 */
+	public void beginSection (int tag) {
+		assert sectionTag < 0 && buffer.position() == 0;
+		sectionTag = tag;
+		sectionStart = position;
+		sectionFirstBlock = blockLengths.size();
+	}
+
+	public void endSection () throws IOException {
+		assert sectionTag >= 0;
+		flush();
+		sections.add(new long[] {sectionTag, sectionFirstBlock,
+				blockLengths.size() - sectionFirstBlock, position - sectionStart});
+		sectionTag = -1;
+	}
+
+	public void putByte (byte b) throws IOException {
+		ensure(1);
+		buffer.put(b);
+		position += 1;
+	}
+
+	public void putBoolean (boolean b) throws IOException {
+		putByte((byte) (b ? 1 : 0));
+	}
+
+	public void putInt (int i) throws IOException {
+		ensure(4);
+		buffer.putInt(i);
+		position += 4;
+	}
+
+	public void putLong (long l) throws IOException {
+		ensure(8);
+		buffer.putLong(l);
+		position += 8;
+	}
+
+	/**
+	 * Puts the first len values of the array. The length itself
+	 * is not written.
+	 */
+	public void putInts (int[] arr, int len) throws IOException {
+		int done = 0;
+		while (done < len) {
+			ensure(4);
+			int chunk = Math.min(len - done, buffer.remaining() / 4);
+			buffer.asIntBuffer().put(arr, done, chunk);
+			buffer.position(buffer.position() + chunk * 4);
+			done += chunk;
+		}
+		position += 4L * len;
+	}
+
+	/**
+	 * Puts the first len values of the array. The length itself
+	 * is not written.
+	 */
+	public void putLongs (long[] arr, int len) throws IOException {
+		int done = 0;
+		while (done < len) {
+			ensure(8);
+			int chunk = Math.min(len - done, buffer.remaining() / 8);
+			buffer.asLongBuffer().put(arr, done, chunk);
+			buffer.position(buffer.position() + chunk * 8);
+			done += chunk;
+		}
+		position += 8L * len;
+	}
+
+	/**
+	 * Puts all the bytes of the array. The length itself is not written.
+	 */
+	public void putBytes (byte[] arr) throws IOException {
+		int done = 0;
+		while (done < arr.length) {
+			ensure(1);
+			int chunk = Math.min(arr.length - done, buffer.remaining());
+			buffer.put(arr, done, chunk);
+			done += chunk;
+		}
+		position += arr.length;
+	}
+
+	/**
+	 * Finishes the snapshot. A writer writing to a file waits for the
+	 * last of its blocks to be compressed, then writes the footer and
+	 * forces the file onto the disk before closing it. A writer writing to memory leaves its last blocks
+	 * compressing, so that closing it costs little.
+	 */
+	public void close () throws IOException {
+		assert sectionTag < 0;
+		closed = true;
+		if (channel == null)
+			return;
+
+		finish();
+		write(footer);
+		channel.force(false);
+		channel.close();
+	}
+
+	/**
+	 * Closes the file of a writer which could not finish its snapshot,
+	 * leaving the file incomplete. This does nothing if the file is
+	 * already closed or the writer is writing to memory.
+	 */
+	public void abort () {
+		if (channel == null || !channel.isOpen())
+			return;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// The snapshot is being abandoned anyway
+		}
+	}
+
+	/**
+	 * Writes a snapshot gathered in memory to the given file, and forces
+	 * it onto the disk. This may be called from another thread once the
+	 * writer is closed.
+	 */
+	public void writeTo (String filename) throws IOException {
+		assert closed && channel == null;
+		finish();
+
+		ByteBuffer[] all = new ByteBuffer[blocks.size() + 2];
+		all[0] = header();
+		for (int i = 0; i < blocks.size(); i++)
+			all[i + 1] = blocks.get(i).duplicate();
+		all[all.length - 1] = footer.duplicate();
+
+		long remaining = 0;
+		for (ByteBuffer b : all)
+			remaining += b.remaining();
+
+		FileChannel out = new FileOutputStream(filename).getChannel();
+		try {
+			while (remaining > 0)
+				remaining -= out.write(all);
+			out.force(false);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Waits for every block to be compressed and builds the footer.
+	 */
+	private synchronized void finish () throws IOException {
+		if (footer != null)
+			return;
+		drain(true);
+
+		footer = ByteBuffer.allocate(sections.size() * Snapshot.ENTRY_LENGTH
+				+ blockLengths.size() * Snapshot.BLOCK_ENTRY_LENGTH + Snapshot.TRAILER_LENGTH);
+		for (long[] section : sections) {
+			footer.putInt((int) section[0]);
+			footer.putInt((int) section[1]);
+			footer.putInt((int) section[2]);
+			footer.putLong(section[3]);
+		}
+
+		long offset = 8;
+		for (int[] lengths : blockLengths) {
+			footer.putLong(offset);
+			footer.putInt(lengths[0]);
+			footer.putInt(lengths[1]);
+			offset += lengths[1];
+		}
+
+		footer.putInt(sections.size());
+		footer.putInt(blockLengths.size());
+		footer.putLong(offset);
+		footer.putInt(Snapshot.MAGIC);
+		footer.flip();
+	}
+
+	/**
+	 * Makes room in the buffer for the given number of bytes.
+	 */
+	private void ensure (int bytes) throws IOException {
+		assert sectionTag >= 0;
+		if (buffer.remaining() < bytes)
+			flush();
+	}
+
+	/**
+	 * Hands the filled part of the buffer off to be compressed as a block.
+	 */
+	private void flush () throws IOException {
+		if (buffer.position() == 0)
+			return;
+
+		buffer.flip();
+		blockLengths.add(new int[] {buffer.remaining(), 0});
+		pending.add(Snapshot.compress(buffer));
+		buffer = ByteBuffer.allocate(Snapshot.BLOCK_SIZE);
+
+		if (channel != null)
+			drain(false);
+	}
+
+	/**
+	 * Writes out or gathers blocks in order as they finish compressing.
+	 * Unless all is set, this only waits for blocks if too many are
+	 * pending.
+	 */
+	private void drain (boolean all) throws IOException {
+		while (!pending.isEmpty()) {
+			Future<ByteBuffer> next = pending.getFirst();
+			if (!all && !next.isDone() && pending.size() <= MAX_PENDING)
+				return;
+
+			ByteBuffer block;
+			try {
+				block = next.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while compressing snapshot", e);
+			} catch (ExecutionException e) {
+				throw new IOException("Unable to compress snapshot", e.getCause());
+			}
+			pending.removeFirst();
+
+			blockLengths.get(resolved++)[1] = block.remaining();
+			if (channel != null)
+				write(block);
+			else
+				blocks.add(block);
+		}
+	}
+
+	private void write (ByteBuffer b) throws IOException {
+		while (b.hasRemaining())
+			channel.write(b);
+	}
+}
@@ -0,0 +1,190 @@
+package gui;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import core.Core;
+import core.HierarchyView;
+import core.Sense;
+
+/**
+ * Renders the growth of a hierarchy to numbered PNG frames, without a
+ * display. The core is stepped on the calling thread and a view of the
+ * hierarchy is taken every so many steps; the views are drawn and 
+ * written by a pool of workers, each with a painter of its own. Should
+ * the workers fall behind, stepping waits for them rather than holding
+ * views without bound.
+ * 
+ * Usage: FrameRenderer (sense class | snapshot) steps interval directory [width height]
+ */
+public class FrameRenderer {
+	public static final int DEFAULT_SIZE = 800;
+	
+	static final int WORKERS = Runtime.getRuntime().availableProcessors();
+	
+	private final File directory;
+	
+	private final int width, height;
+	
+	private final ExecutorService workers;
+	
+	/**
+	 * Permits for the views being drawn or waiting to be
+	 */
+	private final Semaphore pending;
+	
+	private final ThreadLocal<HierarchyPainter> painters = new ThreadLocal<HierarchyPainter>() {
+		protected HierarchyPainter initialValue () {
+			return new HierarchyPainter();
+		}
+	};
+	
+	/**
+	 * Frames which may not yet be written
+	 */
+	private final LinkedList<Future<Void>> written = new LinkedList<Future<Void>>();
+	
+	private int frames = 0;
+	
+	
+	//<><(8)><>//
+	
+	
+	public FrameRenderer (File _directory, int _width, int _height) {
+		directory = _directory;
+		width = _width;
+		height = _height;
+		workers = Executors.newFixedThreadPool(WORKERS, new ThreadFactory() {
+			public Thread newThread (Runnable r) {
+				Thread t = new Thread(r, "Frame Renderer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		pending = new Semaphore(2 * WORKERS);
+	}
+	
+	/**
+	 * Queues a view to be drawn as the next frame, waiting if too many 
+	 * are queued already.
+	 */
+	public Future<Void> render (final HierarchyView view) throws IOException {
+		checkWritten();
+		pending.acquireUninterruptibly();
+		final File file = new File(directory, String.format("frame%06d.png", frames++));
+		
+		Future<Void> frame = workers.submit(new Callable<Void>() {
+			public Void call () throws IOException {
+				try {
+					BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+					Graphics2D g = image.createGraphics();
+					g.setColor(Color.WHITE);
+					g.fillRect(0, 0, width, height);
+					painters.get().paint(g, view, width, height, 1, 0, 0);
+					g.dispose();
+					
+					if (!ImageIO.write(image, "png", file))
+						throw new IOException("No PNG writer for " + file);
+					return null;
+				} finally {
+					pending.release();
+				}
+			}
+		});
+		written.add(frame);
+		return frame;
+	}
+	
+	/**
+	 * Steps the core, rendering a frame of its hierarchy now and after 
+	 * every interval steps.
+	 */
+	public void render (Core core, int steps, int interval) throws IOException {
+		render(core.getHierarchyView());
+		for (int i = 1; i <= steps; i++) {
+			core.step();
+			if (i % interval == 0)
+				render(core.getHierarchyView());
+		}
+	}
+	
+	/**
+	 * Throws the failure of any frame written so far, and forgets those 
+	 * which have been written.
+	 */
+	private void checkWritten () throws IOException {
+		Iterator<Future<Void>> it = written.iterator();
+		while (it.hasNext()) {
+			Future<Void> frame = it.next();
+			if (!frame.isDone())
+				continue;
+			it.remove();
+			try {
+				frame.get();
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while rendering", e);
+			} catch (ExecutionException e) {
+				throw new IOException("Unable to write frame", e.getCause());
+			}
+		}
+	}
+	
+	/**
+	 * Waits for every frame to be written and stops the workers.
+	 */
+	public void close () throws IOException {
+		workers.shutdown();
+		try {
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while rendering", e);
+		}
+		checkWritten();
+	}
+	
+	public int getFrameCount () {
+		return frames;
+	}
+	
+	public static void main (String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println("Usage: FrameRenderer (sense class | snapshot) steps interval directory [width height]");
+			System.exit(1);
+		}
+		System.setProperty("java.awt.headless", "true");
+		
+		Core core;
+		File source = new File(args[0]);
+		if (source.exists())
+			core = Core.open(args[0]);
+		else
+			core = new Core((Sense) Class.forName(args[0]).getDeclaredConstructor().newInstance());
+		
+		File directory = new File(args[3]);
+		directory.mkdirs();
+		int width = args.length > 5 ? Integer.parseInt(args[4]) : DEFAULT_SIZE;
+		int height = args.length > 5 ? Integer.parseInt(args[5]) : DEFAULT_SIZE;
+		
+		long start = System.currentTimeMillis();
+		FrameRenderer renderer = new FrameRenderer(directory, width, height);
+		renderer.render(core, Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+		renderer.close();
+		System.out.println(renderer.getFrameCount() + " frames in " + 
+				(System.currentTimeMillis() - start) + " ms");
+	}
+}
@@ -0,0 +1,228 @@
+package gui;
+
+import java.awt.Point;
+import java.util.Hashtable;
+
+import core.HierarchyView;
+
+/**
+ * Places the neurons of a hierarchy view on a grid of one row per level
+ * and one column per neuron, in level order. The place of each neuron 
+ * is kept from view to view, and only the levels whose neurons changed
+ * are placed again. The grid is mapped onto the screen by a column 
+ * width, a row height and the first column and level shown, so finding
+ * the neuron under a point is plain arithmetic.
+ */
+public class HierarchyLayout {
+	/**
+	 * The tallest a row may be made to fill the height given
+	 */
+	private static final int MAX_ROW_HEIGHT = 32;
+	
+	/**
+	 * The widest or tallest zooming may make a column or row, unless it
+	 * is already so at a zoom of one
+	 */
+	private static final int MAX_CELL = 64;
+	
+	/**
+	 * The ids of each level as last placed
+	 */
+	private long[][] levels = new long[0][];
+	
+	/**
+	 * The column and level of each neuron placed
+	 */
+	private Hashtable<Long,Point> places = new Hashtable<Long,Point>();
+	
+	private int maxLevelSize = 0;
+	
+	private double columnWidth = 1, rowHeight = 1, left = 0, top = 0;
+	
+	private int width = 0, height = 0;
+	
+	
+	//<><(8)><>//
+	
+	
+	/**
+	 * Places the neurons of any levels which have changed since the 
+	 * last view.
+	 */
+	public void update (HierarchyView view) {
+		int count = view.getLevelCount();
+		for (int l = count; l < levels.length; l++)
+			unplace(levels[l], l);
+		
+		long[][] placed = new long[count][];
+		maxLevelSize = 0;
+		for (int l = 0; l < count; l++) {
+			long[] ids = view.getLevel(l);
+			if (l >= levels.length || levels[l] != ids) {
+				if (l < levels.length)
+					unplace(levels[l], l);
+				for (int i = 0; i < ids.length; i++)
+					places.put(ids[i], new Point(i, l));
+			}
+			placed[l] = ids;
+			maxLevelSize = Math.max(maxLevelSize, ids.length);
+		}
+		levels = placed;
+	}
+	
+	/**
+	 * Forgets the places of the neurons of a level which are still there
+	 */
+	private void unplace (long[] ids, int level) {
+		for (long id : ids) {
+			Point p = places.get(id);
+			if (p != null && p.y == level)
+				places.remove(id);
+		}
+	}
+	
+	/**
+	 * Maps the grid onto an area of the given size. At a zoom of one
+	 * the widest level fills the width and every level fits the height;
+	 * above it only the columns from left on and the levels from top on
+	 * are shown. Returns true if the mapping has changed.
+	 */
+	public boolean scale (int _width, int _height, double zoom, double _left, double _top) {
+		double columnFit = getColumnFit(_width), rowFit = getRowFit(_width, _height);
+		double cw = Math.min(columnFit * zoom, Math.max(columnFit, MAX_CELL));
+		double rh = Math.min(rowFit * zoom, Math.max(rowFit, MAX_CELL));
+		boolean changed = cw != columnWidth || rh != rowHeight || _left != left || _top != top 
+			|| _width != width || _height != height;
+		columnWidth = cw;
+		rowHeight = rh;
+		left = _left;
+		top = _top;
+		width = _width;
+		height = _height;
+		return changed;
+	}
+	
+	private double getColumnFit (int _width) {
+		return _width / (double) (maxLevelSize + 1);
+	}
+	
+	private double getRowFit (int _width, int _height) {
+		return Math.min(_height / (double) (levels.length + 1), Math.max(getColumnFit(_width), MAX_ROW_HEIGHT));
+	}
+	
+	/**
+	 * Returns the zoom past which neither columns nor rows grow any 
+	 * larger in an area of the given size
+	 */
+	public double getMaxZoom (int _width, int _height) {
+		double columnFit = getColumnFit(_width), rowFit = getRowFit(_width, _height);
+		return Math.max(Math.max(columnFit, MAX_CELL) / columnFit, Math.max(rowFit, MAX_CELL) / rowFit);
+	}
+	
+	/**
+	 * Returns the column and level of a neuron, or null if it has not 
+	 * been placed
+	 */
+	public Point getPlace (long id) {
+		return places.get(id);
+	}
+	
+	public int getLevelCount () {
+		return levels.length;
+	}
+	
+	public int getMaxLevelSize () {
+		return maxLevelSize;
+	}
+	
+	public double getColumnWidth () {
+		return columnWidth;
+	}
+	
+	public double getRowHeight () {
+		return rowHeight;
+	}
+	
+	/**
+	 * Returns the number of columns which fit across the width
+	 */
+	public double getColumnsShown () {
+		return width / columnWidth;
+	}
+	
+	/**
+	 * Returns the number of levels which fit down the height
+	 */
+	public double getLevelsShown () {
+		return height / rowHeight;
+	}
+	
+	/**
+	 * Returns the first level which is at least partly shown
+	 */
+	public int getFirstLevel () {
+		return Math.min((int) top, levels.length);
+	}
+	
+	/**
+	 * Returns one past the last level which is at least partly shown
+	 */
+	public int getEndLevel () {
+		return (int) Math.min(Math.ceil(top + getLevelsShown()), levels.length);
+	}
+	
+	/**
+	 * Returns the first column of a level which is at least partly shown
+	 */
+	public int getFirstColumn (int level) {
+		return Math.min((int) left, levels[level].length);
+	}
+	
+	/**
+	 * Returns one past the last column of a level which is at least 
+	 * partly shown
+	 */
+	public int getEndColumn (int level) {
+		return (int) Math.min(Math.ceil(left + getColumnsShown()), levels[level].length);
+	}
+	
+	/**
+	 * Returns the screen x of the left edge of a column
+	 */
+	public double getX (int column) {
+		return (column - left) * columnWidth;
+	}
+	
+	/**
+	 * Returns the column, with its fraction, at screen x
+	 */
+	public double getColumn (double x) {
+		return x / columnWidth + left;
+	}
+	
+	/**
+	 * Returns the level, with its fraction, at screen y
+	 */
+	public double getLevel (double y) {
+		return y / rowHeight + top;
+	}
+	
+	/**
+	 * Returns the screen y of the top edge of a level
+	 */
+	public double getY (int level) {
+		return (level - top) * rowHeight;
+	}
+	
+	/**
+	 * Returns the column and level of the neuron under a point on the
+	 * screen, or null if there is none
+	 */
+	public Point hit (int x, int y) {
+		int level = (int) Math.floor(y / rowHeight + top);
+		int column = (int) Math.floor(x / columnWidth + left);
+		if (level < 0 || level >= levels.length || column < 0 || column >= levels[level].length)
+			return null;
+		return new Point(column, level);
+	}
+}
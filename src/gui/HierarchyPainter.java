@@ -0,0 +1,233 @@
+package gui;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+
+import core.HierarchyView;
+
+/**
+ * Draws hierarchy views as placed by a HierarchyLayout. It is shared by
+ * the hierarchy window and the offline frame renderer.
+ * 
+ * The levels are drawn in bands, each to an image of its own which is 
+ * kept until the neurons of its levels or their firing change, or the 
+ * mapping onto the screen does. Where neurons are too small to draw, a
+ * band holds as many levels as fit a row of tiles, and each tile is 
+ * shaded by how many of the neurons under it fire or are primed. As 
+ * bands are kept between views, a painter should only be used by one 
+ * thread.
+ */
+public class HierarchyPainter {
+	/**
+	 * Links are only drawn when fewer neurons than this are shown
+	 */
+	private static final int MAX_DRAW = 1000;
+	
+	/**
+	 * Neurons narrower or shorter than this many pixels are drawn as 
+	 * tiles TILE_SIZE pixels across
+	 */
+	private static final double MIN_SIZE = 2;
+	private static final int TILE_SIZE = 4;
+	
+	private HierarchyLayout layout = new HierarchyLayout();
+	
+	/**
+	 * The image of each band of levels, the number of levels in each 
+	 * and the view from which they were drawn
+	 */
+	private BufferedImage[] bands = new BufferedImage[0];
+	private int levelsPerBand = 1;
+	private HierarchyView drawn = null;
+	
+	private int width = 0;
+	
+	
+	//<><(8)><>//
+	
+	
+	public HierarchyLayout getLayout () {
+		return layout;
+	}
+	
+	/**
+	 * Returns the view last drawn, or null if none has been
+	 */
+	public HierarchyView getDrawn () {
+		return drawn;
+	}
+	
+	/**
+	 * Has every band drawn afresh next time.
+	 */
+	public void invalidate () {
+		bands = new BufferedImage[0];
+	}
+	
+	/**
+	 * Draws a view onto an area of the given size, at the given zoom 
+	 * and from the given first column and level.
+	 */
+	public void paint (Graphics g, HierarchyView view, int _width, int height, double zoom, double left, double top) {
+		width = _width;
+		layout.update(view);
+		boolean rescaled = layout.scale(width, height, zoom, left, top);
+		
+		int perBand = layout.getRowHeight() >= MIN_SIZE ? 1 : (int) Math.ceil(TILE_SIZE / layout.getRowHeight());
+		int count = (view.getLevelCount() + perBand - 1) / perBand;
+		if (rescaled || perBand != levelsPerBand || bands.length != count) {
+			bands = new BufferedImage[count];
+			levelsPerBand = perBand;
+		}
+		
+		if (layout.getEndLevel() > 0) {
+			for (int b = layout.getFirstLevel() / perBand; b <= (layout.getEndLevel() - 1) / perBand; b++) {
+				int first = b * perBand, end = Math.min(first + perBand, view.getLevelCount());
+				if (bands[b] == null || !sameLevels(view, first, end))
+					bands[b] = drawBand(view, first, end);
+				g.drawImage(bands[b], 0, (int) layout.getY(first), null);
+			}
+		}
+		drawn = view;
+		
+		if (!tiled() && countShown() < MAX_DRAW)
+			drawLinks(g, view);
+	}
+	
+	/**
+	 * Returns true if the levels from first to end are drawn as they are
+	 * in the view
+	 */
+	boolean sameLevels (HierarchyView view, int first, int end) {
+		if (drawn == null)
+			return false;
+		for (int l = first; l < end; l++)
+			if (!view.sameLevel(drawn, l))
+				return false;
+		return true;
+	}
+	
+	/**
+	 * Returns true if neurons are too small to draw one by one
+	 */
+	boolean tiled () {
+		return layout.getColumnWidth() < MIN_SIZE || layout.getRowHeight() < MIN_SIZE;
+	}
+	
+	/**
+	 * Draws the shown neurons of the levels from first to end to an 
+	 * image of their rows
+	 */
+	BufferedImage drawBand (HierarchyView view, int first, int end) {
+		int height = Math.max(1, (int) Math.ceil((end - first) * layout.getRowHeight()));
+		BufferedImage image = new BufferedImage(Math.max(1, width), height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		
+		if (tiled()) {
+			drawTiles(g, view, first, end, height);
+		} else {
+			int neuronWidth = (int) Math.round(.75 * layout.getColumnWidth());
+			int neuronHeight = (int) Math.round(.75 * layout.getRowHeight());
+			for (int l = first; l < end; l++) {
+				int y = (int) (layout.getY(l) - layout.getY(first) + layout.getRowHeight()) - neuronHeight;
+				for (int i = layout.getFirstColumn(l); i < layout.getEndColumn(l); i++) {
+					setNeuronColor(g, view, l, i);
+					int x = (int) (layout.getX(i) + layout.getColumnWidth()) - neuronWidth;
+					g.fillRect(x, y, neuronWidth, neuronHeight);
+				}
+			}
+		}
+		
+		g.dispose();
+		return image;
+	}
+	
+	/**
+	 * Draws the levels from first to end as a row of tiles, each shaded 
+	 * red by the share of the neurons under it which fire, cyan by the
+	 * share primed and gray by the share temporal
+	 */
+	void drawTiles (Graphics g, HierarchyView view, int first, int end, int height) {
+		int tiles = (width + TILE_SIZE - 1) / TILE_SIZE;
+		int[] count = new int[tiles], firing = new int[tiles], 
+			primed = new int[tiles], temporal = new int[tiles];
+		
+		for (int l = first; l < end; l++) {
+			for (int i = layout.getFirstColumn(l); i < layout.getEndColumn(l); i++) {
+				int from = Math.max(0, (int) layout.getX(i) / TILE_SIZE);
+				int to = Math.min(tiles - 1, (int) (layout.getX(i + 1) - 1) / TILE_SIZE);
+				for (int t = from; t <= to; t++) {
+					count[t]++;
+					if (view.firing(l, i))
+						firing[t]++;
+					if (view.primed(l, i))
+						primed[t]++;
+					if (view.temporal(l, i))
+						temporal[t]++;
+				}
+			}
+		}
+		
+		for (int t = 0; t < tiles; t++) {
+			if (count[t] == 0)
+				continue;
+			int gray = 96 * temporal[t] / count[t];
+			g.setColor(new Color(Math.min(255, gray + 255 * firing[t] / count[t]), 
+					Math.min(255, gray + 255 * primed[t] / count[t]), 
+					Math.min(255, gray + 255 * primed[t] / count[t])));
+			g.fillRect(t * TILE_SIZE, 0, TILE_SIZE, height);
+		}
+	}
+	
+	/**
+	 * Draws a line from the middle of each neuron shown to the middle of
+	 * each of its children
+	 */
+	void drawLinks (Graphics g, HierarchyView view) {
+		g.setColor(Color.BLACK);
+		double midColumn = .625 * layout.getColumnWidth(), midRow = .625 * layout.getRowHeight();
+		for (int l = Math.max(1, layout.getFirstLevel()); l < layout.getEndLevel(); l++) {
+			for (int i = layout.getFirstColumn(l); i < layout.getEndColumn(l); i++) {
+				int x = (int) (layout.getX(i) + midColumn);
+				int y = (int) (layout.getY(l) + midRow);
+				for (long child : view.getChildren(l, i)) {
+					Point p = layout.getPlace(child);
+					if (p != null)
+						g.drawLine((int) (layout.getX(p.x) + midColumn), 
+								(int) (layout.getY(p.y) + midRow), x, y);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of neurons shown
+	 */
+	int countShown () {
+		int count = 0;
+		for (int l = layout.getFirstLevel(); l < layout.getEndLevel(); l++)
+			count += layout.getEndColumn(l) - layout.getFirstColumn(l);
+		return count;
+	}
+	
+	static void setNeuronColor (Graphics g, HierarchyView view, int level, int i) {
+		if (view.temporal(level, i)) {
+			if (view.firing(level, i))
+				g.setColor(Color.PINK);
+			else {
+				if (view.primed(level, i))
+					g.setColor(Color.cyan);
+				else g.setColor(Color.GRAY);
+			}
+		} else {
+			if (view.firing(level, i)) 
+				g.setColor(Color.RED);
+			else
+				g.setColor(Color.BLACK);
+		}
+		
+	}
+}
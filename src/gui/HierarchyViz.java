@@ -1,34 +1,38 @@
 package gui;
 
-import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
-import java.util.ArrayList;
-import java.util.ConcurrentModificationException;
-import java.util.Hashtable;
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.awt.Point;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 
-import core.Neuron;
+import core.HierarchyView;
 
 /**
- * Dynamically visualizes the neuron hierarchy.
+ * Dynamically visualizes the neuron hierarchy. The wheel zooms and 
+ * dragging pans, and hovering over a neuron shows its id and score.
+ * See HierarchyPainter for how the hierarchy is drawn.
  */
 public class HierarchyViz extends JPanel implements StepUpdated {
 	private static final long serialVersionUID = 1L;
 	
-	private static final int MAX_DRAW = 1000;
+	private static final double ZOOM_STEP = 1.25;
 	
 	int edge = 800;
 	
 	Gui inter = Gui.INSTANCE;
 	
-	ArrayList<LinkedList<Neuron>> hierarchy;
-		
-	Hashtable<Long,Dimension> mapping = new Hashtable<Long,Dimension>();
+	HierarchyPainter painter = new HierarchyPainter();
+	
+	HierarchyLayout layout = painter.getLayout();
+	
+	double zoom = 1, left = 0, top = 0;
+	
+	Point dragFrom = null;
 	
 	public HierarchyViz (LocationManager locman) {
 		this.setPreferredSize(new Dimension(edge,edge));
@@ -36,98 +40,68 @@ public class HierarchyViz extends JPanel implements StepUpdated {
 		frame.setPreferredSize(new Dimension(edge,edge));
 		locman.setupLocation(frame);
 		
+		MouseAdapter mouse = new MouseAdapter() {
+			public void mousePressed (MouseEvent e) {
+				dragFrom = e.getPoint();
+			}
+			
+			public void mouseDragged (MouseEvent e) {
+				if (dragFrom == null)
+					return;
+				pan(left - (e.getX() - dragFrom.x) / layout.getColumnWidth(), 
+						top - (e.getY() - dragFrom.y) / layout.getRowHeight());
+				dragFrom = e.getPoint();
+			}
+			
+			public void mouseWheelMoved (MouseWheelEvent e) {
+				zoom(e.getWheelRotation() < 0 ? ZOOM_STEP : 1 / ZOOM_STEP, e.getX(), e.getY());
+			}
+		};
+		addMouseListener(mouse);
+		addMouseMotionListener(mouse);
+		addMouseWheelListener(mouse);
+		setToolTipText("");
+		
 		frame.add(this);
 		frame.pack();
 		frame.setVisible(true);
 	}
-		 
-	public void paintComponent(Graphics g) {
-		super.paintComponent(g);
-		hierarchy = inter.coreSys.getNeuronHierarchy();
-		try {
-			computeDynamicGrid(g);
-		} catch (ConcurrentModificationException e) {}
+	
+	/**
+	 * Zooms by a factor, keeping the neuron under x, y where it is
+	 */
+	void zoom (double factor, int x, int y) {
+		double column = layout.getColumn(x), level = layout.getLevel(y);
+		zoom = Math.max(1, Math.min(zoom * factor, layout.getMaxZoom(getWidth(), getHeight())));
+		layout.scale(getWidth(), getHeight(), zoom, left, top);
+		pan(column - x / layout.getColumnWidth(), level - y / layout.getRowHeight());
 	}
 	
 	/**
-	 * Computes the dynamic grid upon which decides the spacing and placement
-	 * of each different neuron in the hierarchy. This can sometimes throw 
-	 * a concurrent modification exception while it iterates over the lists.
-	 * This should really not be a problem as this method does not modify
-	 * the hierarchy in any way.
+	 * Moves the first column and level shown, keeping the hierarchy in 
+	 * view
 	 */
-	void computeDynamicGrid (Graphics g) throws ConcurrentModificationException {
-		int maxDim = findMaxDimension();
-		edge = this.getWidth();
-		double space_per_neuron = edge / (double) (maxDim + 1);
-		int neuronEdge = (int) Math.round(.75 * space_per_neuron);
-		int padding = ((int) space_per_neuron) - neuronEdge;
-		mapping.clear();
-		
-		int xDisp = 0, yDisp = 0;
-		
-		ListIterator<LinkedList<Neuron>> it = hierarchy.listIterator();
-		while (it.hasNext()) {
-			ListIterator<Neuron> level = it.next().listIterator();
-			yDisp += padding;
-			
-			while (level.hasNext()) {
-				Neuron n = level.next();
-				setNeuronColor(g,n);
-				
-				xDisp += padding;
-				
-				g.fillRect(xDisp, yDisp, neuronEdge, neuronEdge);
-				
-				int xMid = xDisp + neuronEdge/2;
-				int yMid = yDisp + neuronEdge/2;
-				mapping.put(n.getId(), new Dimension(xMid,yMid));
-				
-				if (inter.coreSys.getNeuronCount() < MAX_DRAW) {
-					for (Neuron other : n.getChildren()) {
-						if (mapping.containsKey(other.getId())) {
-							Dimension otherMid = mapping.get(other.getId());
-							g.drawLine(otherMid.width, otherMid.height, xMid, yMid);
-						}
-					}
-				}
-				
-				xDisp += neuronEdge;
-			}
-			yDisp += neuronEdge;
-			xDisp = 0;
-		}
+	void pan (double column, double level) {
+		layout.scale(getWidth(), getHeight(), zoom, left, top);
+		double maxLeft = layout.getMaxLevelSize() + 1 - layout.getColumnsShown();
+		double maxTop = layout.getLevelCount() + 1 - layout.getLevelsShown();
+		left = Math.max(0, Math.min(column, maxLeft));
+		top = Math.max(0, Math.min(level, maxTop));
+		painter.invalidate();
+		repaint();
 	}
 	
-	void setNeuronColor (Graphics g, Neuron n) {
-		if (n.temporal()) {
-			if (n.firing())
-				g.setColor(Color.PINK);
-			else {
-				if (n.primed())
-					g.setColor(Color.cyan);
-				else g.setColor(Color.GRAY);
-			}
-		} else {
-			if (n.firing()) 
-				g.setColor(Color.RED);
-			else
-				g.setColor(Color.BLACK);
-		}
-		
+	public void paintComponent(Graphics g) {
+		super.paintComponent(g);
+		painter.paint(g, inter.coreSys.getHierarchyView(), getWidth(), getHeight(), zoom, left, top);
 	}
 	
-	/**
-	 * Finds the widest or tallest point in the neuron
-	 * hierarchy
-	 */
-	int findMaxDimension () {
-		int max = hierarchy.size();
-		for (int i = 0; i < hierarchy.size(); i++) {
-			int sz = hierarchy.get(i).size();
-			if (sz > max) max = sz;
-		}
-		return max;
+	public String getToolTipText (MouseEvent e) {
+		HierarchyView view = painter.getDrawn();
+		Point p = layout.hit(e.getX(), e.getY());
+		if (view == null || p == null || p.y >= view.getLevelCount() || p.x >= view.getLevelSize(p.y))
+			return null;
+		return "Neuron " + view.getId(p.y, p.x) + ", score " + view.getScore(p.y, p.x);
 	}
 
 	/**
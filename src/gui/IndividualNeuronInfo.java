@@ -2,8 +2,6 @@ package gui;
 
 import java.awt.Dimension;
 import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.Queue;
 
@@ -12,6 +10,7 @@ import javax.swing.JScrollPane;
 import javax.swing.JTextPane;
 
 import core.Neuron;
+import core.ReceptiveField;
 
 /**
  * This window provides information on a single neuron
@@ -64,7 +63,12 @@ public class IndividualNeuronInfo implements StepUpdated {
 		out.append("Children: " + getDirectChildren(n) + "\n");
 		out.append("Firing Pattern: \n" + getLeaves(n) + "\n");*/
 		
-		pane.setText(n.toAdvancedString());
+		// The core may be stepping on another thread
+		String info;
+		synchronized (Gui.INSTANCE.coreSys) {
+			info = n.toAdvancedString();
+		}
+		pane.setText(info);
 		pane.select(0, 0);
 		pane.requestFocus();
 	}
@@ -78,70 +82,39 @@ public class IndividualNeuronInfo implements StepUpdated {
 		return out;
 	}
 	
+	/**
+	 * Lists the inputs under neuron n at each step, earliest first, 
+	 * followed by the inputs read as characters
+	 */
 	String getLeaves (Neuron n) {
 		if (n.getHeight() <= 0)
 			return "";
-		String out = "";
-		ArrayList<Hashtable<Integer,Boolean>> index = new ArrayList<Hashtable<Integer,Boolean>>();
-		
-		Queue<Neuron> nq = new LinkedList<Neuron>();
-		Queue<Integer> iq = new LinkedList<Integer>();
-		
-		nq.add(n);
-		iq.add(0);
-		
-		while (!nq.isEmpty()) {
-			Neuron neu = nq.remove();
-			int time = iq.remove();
-			
-			while (index.size() <= time)
-				index.add(new Hashtable<Integer,Boolean>());
-			
-			int id = (int) neu.getId();
-			if (neu.getHeight() == 0 && !index.get(time).containsKey(id))
-				index.get(time).put(id, true);
-			
-			if (neu.getHeight() > 0) {
-				ArrayList<Neuron> foundation = neu.getChildren();
-				Integer[] delays = neu.getDelays();
-				for (int i = 0; i < foundation.size(); i++) {
-					Neuron child = foundation.get(i);
-					int delay = delays[i];
-					nq.add(child);
-					iq.add(time + delay);
-				}
-			}
-		}
+		ReceptiveField field = Gui.INSTANCE.coreSys.getReceptiveField(n);
+		if (field == null)
+			return "";
 		
+		StringBuilder out = new StringBuilder();
 		ArrayList<Integer> interpretation = new ArrayList<Integer>();
-		
 		int cnt = 0;
-		for (int i = index.size()-1; i >= 0; i--) {
-			out += cnt++ + ": ";
-			Enumeration<Integer> ids = index.get(i).keys();
-			while (ids.hasMoreElements()) {
-				int id = ids.nextElement();
-				if (id != (int) n.getId()) {
-					interpretation.add(id);
-					out += id + " ";
-				}
+		for (int offset = field.getSpan(); offset >= 0; offset--) {
+			out.append(cnt++ + ": ");
+			for (int input : field.getInputs(offset)) {
+				interpretation.add(input);
+				out.append(input + " ");
 			}
-			out += "\n";
+			out.append("\n");
 		}
 		
-		out += getInterpretation(interpretation);
-		
-		return out;
+		out.append(getInterpretation(interpretation));
+		return out.toString();
 	}
 	
 	String getInterpretation (ArrayList<Integer> arr) {
-		String out = "";
-		for (int i : arr) {
-			out += (char) i;
-			
-		}
-		out += "\n";
-		return out;
+		StringBuilder out = new StringBuilder();
+		for (int i : arr)
+			out.append((char) i);
+		out.append("\n");
+		return out.toString();
 	}
 	
 	String getChildren (Neuron n) {
@@ -1,26 +1,54 @@
 package gui;
 
 import java.awt.Dimension;
+import java.util.Arrays;
+import java.util.List;
 
-import javax.swing.JEditorPane;
+import javax.swing.AbstractListModel;
+import javax.swing.DefaultListCellRenderer;
 import javax.swing.JFrame;
+import javax.swing.JList;
 import javax.swing.JScrollPane;
 
+import core.Core;
+import core.memory.MemorySlice;
+
 /**
  * Assists in visualizing the activity of the memory 
  * at each step.
+ * 
+ * Each slice of the memory is a row, newest first. Rather than format
+ * the whole memory each update, the viz fetches only the slices added 
+ * since the last update and drops those the memory has forgotten. The
+ * rows in view are fetched again, as firings may still be added to or
+ * made permanent in recent slices. Only rows in view are formatted.
  */
 public class MemoryViz implements StepUpdated {
-	JEditorPane pane;
+	/**
+	 * The widest row expected, which sizes every row
+	 */
+	private static final String PROTOTYPE = "Timestep 0000000: 000 000 000 000 000 000";
+	
+	JList<MemorySlice> list;
 	JScrollPane scrollPane;
 	
+	SliceModel rows = new SliceModel();
+	
+	/**
+	 * The core whose memory is shown
+	 */
+	Core shown = null;
+	
 	public MemoryViz (LocationManager locMan) {
 		JFrame frame = new JFrame("Memory Visualizer");
 		locMan.setupLocation(frame);
 		
-		pane = new JEditorPane();
-		pane.setEditable(false);
-		scrollPane = new JScrollPane(pane);
+		list = new JList<MemorySlice>(rows);
+		Dimension cell = new DefaultListCellRenderer()
+			.getListCellRendererComponent(list, PROTOTYPE, 0, false, false).getPreferredSize();
+		list.setFixedCellWidth(cell.width);
+		list.setFixedCellHeight(cell.height);
+		scrollPane = new JScrollPane(list);
 		scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
 		scrollPane.setPreferredSize(new Dimension(250,300));
 				
@@ -30,13 +58,113 @@ public class MemoryViz implements StepUpdated {
 	}
 	
 	/**
-	 * Updates the memory visualizer with the latest version information
-	 * from the memory
+	 * Updates the memory visualizer with the slices added to the memory
+	 * since the last update
 	 */
 	public void update () {
-		String memRep = Gui.INSTANCE.coreSys.getMemoryRepresentation();
-		pane.setText(memRep);
-		pane.select(0, 0);
-		pane.requestFocus();
+		Core core = Gui.INSTANCE.coreSys;
+		if (core != shown || rows.getLatestTime() > core.getTime()) {
+			rows.clear();
+			shown = core;
+		}
+		
+		int oldest = core.getOldestMemoryTime();
+		rows.forget(oldest);
+		rows.add(core.getMemorySlices(Math.max(rows.getLatestTime() + 1, oldest), core.getTime()));
+		
+		int first = list.getFirstVisibleIndex(), last = list.getLastVisibleIndex();
+		if (first >= 0 && last >= first)
+			rows.replace(core.getMemorySlices(rows.getTime(last), rows.getTime(first)));
+	}
+	
+	/**
+	 * The slices shown, kept oldest first in a circular array but listed
+	 * newest first. Slices are added and forgotten in batches, each of 
+	 * which is a single change to the list.
+	 */
+	static class SliceModel extends AbstractListModel<MemorySlice> {
+		private static final long serialVersionUID = 1L;
+		
+		private MemorySlice[] slices = new MemorySlice[64];
+		
+		private int start = 0, count = 0;
+		
+		public int getSize () {
+			return count;
+		}
+		
+		public MemorySlice getElementAt (int row) {
+			return slices[(start + count - 1 - row) % slices.length];
+		}
+		
+		int getTime (int row) {
+			return getElementAt(row).getTime();
+		}
+		
+		/**
+		 * Returns the time of the newest slice, or -1 if there is none
+		 */
+		int getLatestTime () {
+			return count == 0 ? -1 : getTime(0);
+		}
+		
+		/**
+		 * Adds slices newer than any held, oldest first.
+		 */
+		void add (List<MemorySlice> added) {
+			if (added.isEmpty())
+				return;
+			if (count + added.size() > slices.length) {
+				MemorySlice[] grown = new MemorySlice[Math.max(slices.length * 2, count + added.size())];
+				for (int i = 0; i < count; i++)
+					grown[i] = slices[(start + i) % slices.length];
+				slices = grown;
+				start = 0;
+			}
+			for (MemorySlice slice : added)
+				slices[(start + count++) % slices.length] = slice;
+			fireIntervalAdded(this, 0, added.size() - 1);
+		}
+		
+		/**
+		 * Forgets the slices older than the given time
+		 */
+		void forget (int oldest) {
+			int removed = 0;
+			while (count > 0 && slices[start].getTime() < oldest) {
+				slices[start] = null;
+				start = (start + 1) % slices.length;
+				count--;
+				removed++;
+			}
+			if (removed > 0)
+				fireIntervalRemoved(this, count, count + removed - 1);
+		}
+		
+		/**
+		 * Replaces the slices held at the times of the given slices
+		 */
+		void replace (List<MemorySlice> fresh) {
+			int first = Integer.MAX_VALUE, last = -1;
+			for (MemorySlice slice : fresh) {
+				int row = getLatestTime() - slice.getTime();
+				if (row < 0 || row >= count)
+					continue;
+				slices[(start + count - 1 - row) % slices.length] = slice;
+				first = Math.min(first, row);
+				last = Math.max(last, row);
+			}
+			if (last >= 0)
+				fireContentsChanged(this, first, last);
+		}
+		
+		void clear () {
+			int removed = count;
+			Arrays.fill(slices, null);
+			start = 0;
+			count = 0;
+			if (removed > 0)
+				fireIntervalRemoved(this, 0, removed - 1);
+		}
 	}
 }
@@ -5,19 +5,27 @@ import java.awt.FlowLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
-import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JSpinner;
 import javax.swing.JTextField;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.SwingWorker;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 /**
  * Creates the menu bar for the GUI.
  * Controls the buttons.
  */
-public class MenuBar implements ActionListener {
+public class MenuBar implements ActionListener, ChangeListener {
 	private static final long serialVersionUID = 5461363422683971543L;
 	public static final String PATH_SER = "path.ser";
 	
@@ -32,11 +40,19 @@ public class MenuBar implements ActionListener {
 	
 	JTextField textbox = new JTextField(5);
 	
+	/**
+	 * The frame rate cap, and the number of steps the core may take 
+	 * between frames while playing. No steps per frame plays the core
+	 * as fast as it will go.
+	 */
+	JSpinner fps = new JSpinner(new SpinnerNumberModel(Renderer.DEFAULT_FPS, 1, 100, 1));
+	JSpinner stepsPerFrame = new JSpinner(new SpinnerNumberModel(0, 0, 100000, 1));
+	
 	volatile boolean playing = false;
-		
-	ArrayList<StepUpdated> steppable = new ArrayList<StepUpdated>();
 	
-	BasicThread thread = new BasicThread();
+	Renderer renderer = new Renderer();
+	
+	volatile BasicThread thread = null;
 	
 	JFrame frame;
 	
@@ -47,7 +63,7 @@ public class MenuBar implements ActionListener {
 	public MenuBar (LocationManager locman, NeuronGui _ng) {
 		ng = _ng;
 		frame = new JFrame(LocationManager.MAIN_WINDOW);
-		frame.setPreferredSize(new Dimension(200,200));
+		frame.setPreferredSize(new Dimension(220,260));
 		locman.setupLocation(frame);
 		
 		panel = new JPanel();
@@ -68,7 +84,7 @@ public class MenuBar implements ActionListener {
 	 * a new step is taken.
 	 */
 	public void addSteppable (StepUpdated s) {
-		steppable.add(s);
+		renderer.addSteppable(s);
 	}
 	
 	/**
@@ -80,8 +96,6 @@ public class MenuBar implements ActionListener {
 		step = createButton(stepEvent, stepEvent);
 		play = createButton(playEvent, playEvent);
 		
-		play.addActionListener(thread);
-		
 		panel.add(load);
 		panel.add(save);
 		panel.add(step);
@@ -89,6 +103,12 @@ public class MenuBar implements ActionListener {
 		
 		panel.add(textbox);
 		textbox.addActionListener(this);
+		
+		panel.add(new JLabel("fps"));
+		panel.add(fps);
+		panel.add(new JLabel("steps/frame"));
+		panel.add(stepsPerFrame);
+		fps.addChangeListener(this);
 	}
 	
 	JButton createButton (String name, String event) {
@@ -112,7 +132,7 @@ public class MenuBar implements ActionListener {
 			if (retVal == JFileChooser.APPROVE_OPTION) {
 				recentDir = fc.getSelectedFile().getParentFile();
 				haus.io.Serializer.serialize(recentDir, PATH_SER);
-				Gui.INSTANCE.coreSys = new core.Core(fc.getSelectedFile().getAbsoluteFile().toString());
+				Gui.INSTANCE.coreSys = core.Core.open(fc.getSelectedFile().getAbsoluteFile().toString());
 				updateSteppables();
 			}
 		} else if (saveEvent.equals(event)) {
@@ -121,7 +141,7 @@ public class MenuBar implements ActionListener {
 			if (retVal == JFileChooser.APPROVE_OPTION) {
 				recentDir = fc.getSelectedFile().getParentFile();
 				haus.io.Serializer.serialize(recentDir, PATH_SER);
-				Gui.INSTANCE.coreSys.serializeCore(fc.getSelectedFile().getAbsolutePath().toString());
+				save(fc.getSelectedFile().getAbsolutePath().toString());
 			}
 		} else if (stepEvent.equals(event)) {
 			takeStep();
@@ -132,38 +152,85 @@ public class MenuBar implements ActionListener {
 			} else {
 				play.setText(pauseEvent);
 				playing = true;
+				thread = new BasicThread();
+				thread.start();
 			}
 		}
 	}
 	
+	public void stateChanged (ChangeEvent e) {
+		renderer.setFrameRate((Integer) fps.getValue());
+	}
 	
 	void takeStep () {
 		Gui.INSTANCE.coreSys.step();
-		updateSteppables();
 	}
 	
 	/**
-	 * Updates all steppable components.
+	 * Saves the core in the background, telling the user if it fails.
+	 */
+	private void save (final String filename) {
+		final Future<Void> saving;
+		try {
+			saving = Gui.INSTANCE.coreSys.serializeCoreAsync(filename);
+		} catch (RuntimeException e) {
+			saveFailed(filename, e);
+			return;
+		}
+		
+		new SwingWorker<Void,Void>() {
+			protected Void doInBackground () throws Exception {
+				return saving.get();
+			}
+			
+			protected void done () {
+				try {
+					get();
+				} catch (InterruptedException e) {
+					saveFailed(filename, e);
+				} catch (ExecutionException e) {
+					// Unwrap the error from saving as well as from get
+					Throwable cause = e.getCause();
+					if (cause instanceof ExecutionException)
+						cause = cause.getCause();
+					saveFailed(filename, cause);
+				}
+			}
+		}.execute();
+	}
+	
+	private void saveFailed (String filename, Throwable cause) {
+		cause.printStackTrace();
+		JOptionPane.showMessageDialog(frame, "Unable to save " + filename + "\n" + cause, 
+				"Save failed", JOptionPane.ERROR_MESSAGE);
+	}
+	
+	/**
+	 * Has all steppable components updated at the next frame.
 	 */
 	void updateSteppables () {
-		for (StepUpdated s : steppable)
-			s.update();
+		renderer.invalidate();
 	}
 	
-	class BasicThread extends Thread implements ActionListener {		
-		private boolean running = false;
-				
+	/**
+	 * Steps the core while playing. Drawing is left to the renderer, so
+	 * the core steps at full speed unless held to a number of steps per
+	 * frame.
+	 */
+	class BasicThread extends Thread {
 		public void run () {
-			while (running)
+			int steps = 0;
+			while (playing && thread == this) {
 				takeStep();
-		}
-
-		public void actionPerformed(ActionEvent arg0) {
-			if (running) {
-				running = false;
-			} else {
-				running = true;
-				start();
+				int limit = (Integer) stepsPerFrame.getValue();
+				if (limit > 0 && ++steps >= limit) {
+					steps = 0;
+					try {
+						renderer.awaitFrame();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
 			}
 		}
 	}
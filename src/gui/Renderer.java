@@ -0,0 +1,90 @@
+package gui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+
+import javax.swing.Timer;
+
+/**
+ * Redraws the steppable components at a capped frame rate, apart from
+ * the thread stepping the core. Each frame samples whatever the core
+ * holds at that moment, so any number of steps taken between frames
+ * are drawn as one update. Frames are drawn on the event thread.
+ */
+public class Renderer implements ActionListener {
+	public static final int DEFAULT_FPS = 20;
+	
+	ArrayList<StepUpdated> steppable = new ArrayList<StepUpdated>();
+	
+	Timer timer;
+	
+	/**
+	 * The time step last drawn
+	 */
+	private int drawnTime = -1;
+	
+	/**
+	 * Set if the components must be redrawn whether or not the core
+	 * has stepped, such as when a new core is loaded
+	 */
+	private volatile boolean dirty = true;
+	
+	/**
+	 * The number of frames drawn, which steppers may wait on
+	 */
+	private long frames = 0;
+	
+	public Renderer () {
+		timer = new Timer(1000 / DEFAULT_FPS, this);
+		timer.setCoalesce(true);
+		timer.start();
+	}
+	
+	/**
+	 * Adds another component which needs to be updated when
+	 * a new step is taken.
+	 */
+	public void addSteppable (StepUpdated s) {
+		steppable.add(s);
+	}
+	
+	/**
+	 * Caps the number of frames drawn per second
+	 */
+	public void setFrameRate (int fps) {
+		timer.setDelay(1000 / Math.max(1, fps));
+	}
+	
+	/**
+	 * Has the components redrawn at the next frame.
+	 */
+	public void invalidate () {
+		dirty = true;
+	}
+	
+	public void actionPerformed (ActionEvent e) {
+		int time = Gui.INSTANCE.coreSys.getTime();
+		if (dirty || time != drawnTime) {
+			dirty = false;
+			drawnTime = time;
+			for (StepUpdated s : steppable)
+				s.update();
+		}
+		
+		synchronized (this) {
+			frames++;
+			notifyAll();
+		}
+	}
+	
+	/**
+	 * Blocks until the next frame has been drawn. This must not be 
+	 * called on the event thread.
+	 */
+	public synchronized void awaitFrame () throws InterruptedException {
+		long frame = frames;
+		while (frames == frame)
+			wait();
+	}
+}
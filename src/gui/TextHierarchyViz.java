@@ -1,15 +1,14 @@
 package gui;
 
 import java.awt.Dimension;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Comparator;
 
 import javax.swing.JFrame;
 import javax.swing.JScrollPane;
 import javax.swing.JTextPane;
 
+import core.HierarchyView;
 import core.Neuron;
 
 /**
@@ -40,26 +39,44 @@ public class TextHierarchyViz implements StepUpdated {
 	}
 	
 	/**
-	 * Updates the hierarchy
+	 * Updates the hierarchy. Each level is listed from the highest 
+	 * score down, as read from the latest published view.
 	 */
 	public void update () {
+		final HierarchyView view = Gui.INSTANCE.coreSys.getHierarchyView();
 		StringBuilder sb = new StringBuilder();
-		sb.append("Current Timestep: " + Gui.INSTANCE.coreSys.getTime() + "\n\n");
-		ArrayList<LinkedList<Neuron>> hierarchy = Gui.INSTANCE.coreSys.getNeuronHierarchy();
-		for (int i = 0; i < hierarchy.size(); i++) {
-			sb.append("Level " + i + ": ");
-			LinkedList<Neuron> level = hierarchy.get(i);
-			Collections.sort(level);
-			Iterator<Neuron> it = level.listIterator();
-			while (it.hasNext()) {
-				Neuron n = it.next();
-				sb.append(neuronToString(n));
-			}
+		sb.append("Current Timestep: " + view.getTime() + "\n\n");
+		for (int l = 0; l < view.getLevelCount(); l++) {
+			sb.append("Level " + l + ": ");
+			final int level = l;
+			Integer[] order = new Integer[view.getLevelSize(l)];
+			for (int i = 0; i < order.length; i++)
+				order[i] = i;
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare (Integer a, Integer b) {
+					return view.getScore(level, b) - view.getScore(level, a);
+				}
+			});
+			for (int i : order)
+				sb.append(neuronToString(view, l, i));
 			sb.append("\n\n");
 		}
 		pane.setText(sb.toString());
 	}
 	
+	/**
+	 * Returns the string for the ith neuron of a level of a view, as
+	 * neuronToString does for a neuron.
+	 */
+	static String neuronToString (HierarchyView view, int level, int i) {
+		String out = view.getId(level, i)+"";
+		if (view.temporal(level, i)) 
+			out = "<"+ out +">";
+		
+		out += getCaption(view.firing(level, i), view.primed(level, i)) + " ";
+		return out;
+	}
+	
 	/**
 	 * Returns a suitable string representation for this particular neuron.
 	 * The information displayed differs from that displayed by the typical
@@ -70,16 +87,16 @@ public class TextHierarchyViz implements StepUpdated {
 		if (n.temporal()) 
 			out = "<"+ out +">";
 		
-		out += getCaption(n) + " ";
+		out += getCaption(n.firing(), n.primed()) + " ";
 		return out;
 	}
 	
-	static String getCaption (Neuron n) {
+	static String getCaption (boolean firing, boolean primed) {
 		String out = "(";
 		
-		if (n.firing())
+		if (firing)
 			out += "F";
-		if (n.primed())
+		if (primed)
 			out += "P";
 		
 		if (out.length() == 1)